@@ -0,0 +1,118 @@
+import datastructures.CostEvaluator;
+import datastructures.Edge;
+import datastructures.Node;
+import datastructures.VRPProblem;
+import datastructures.VRPSolution;
+import read_write.VRPInstanceReader;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+
+/**
+ * Checks that the hot lookups of the search allocate nothing: penalized CostEvaluator.getDistance
+ * (with and without lazy_distances) and Edge.hashCode. Exits with status 1 if any bytes are allocated.
+ *
+ *   java -cp bin AllocationCheck large_instances/antwerp1.vrp
+ */
+public class AllocationCheck {
+
+    private static final int NUM_PAIRS = 1 << 16;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+    private static final int NUM_PENALIZED_EDGES = 500;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java AllocationCheck <instance-file>");
+            System.exit(1);
+        }
+        VRPProblem problem = VRPInstanceReader.readVRPInstance(args[0]);
+
+        boolean allocationFree = true;
+        for (int lazyDistances = 0; lazyDistances <= 1; lazyDistances++) {
+            CostEvaluator evaluator = createPenalizedEvaluator(problem, lazyDistances);
+            Node[][] pairs = getPairs(problem, evaluator);
+            allocationFree &= check("getDistance (lazy_distances=" + lazyDistances + ")",
+                    k -> evaluator.getDistance(pairs[0][k], pairs[1][k]));
+        }
+
+        Node[][] pairs = getPairs(problem, createPenalizedEvaluator(problem, 0));
+        Edge[] edges = new Edge[pairs[0].length];
+        for (int k = 0; k < edges.length; k++) {
+            edges[k] = new Edge(pairs[0][k], pairs[1][k]);
+        }
+        allocationFree &= check("Edge.hashCode", k -> edges[k].hashCode());
+
+        if (!allocationFree) System.exit(1);
+    }
+
+    // evaluator with penalization enabled and some penalized edges, so that lookups hit and miss the penalties
+    private static CostEvaluator createPenalizedEvaluator(VRPProblem problem, int lazyDistances) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("neighborhood_size", 20);
+        parameters.put("parallel_construction", 0);
+        parameters.put("lazy_distances", lazyDistances);
+        CostEvaluator evaluator = new CostEvaluator(problem.getNodes(), problem.getCapacity(), parameters);
+
+        VRPSolution solution = new VRPSolution(problem, evaluator);
+        for (Node customer : problem.getCustomers()) {
+            solution.addRoute(Collections.singletonList(customer));
+        }
+        evaluator.determineEdgeBadness(solution.getRoutes());
+        for (int i = 0; i < Math.min(NUM_PENALIZED_EDGES, problem.getCustomers().size()); i++) {
+            evaluator.getAndPenalizeWorstEdge();
+        }
+        evaluator.enablePenalization();
+        return evaluator;
+    }
+
+    // random (customer, neighbor) and (customer, depot) pairs, as first nodes / second nodes
+    private static Node[][] getPairs(VRPProblem problem, CostEvaluator evaluator) {
+        List<Node> customers = problem.getCustomers();
+        Random random = new Random(3);
+        Node[][] pairs = new Node[2][2 * NUM_PAIRS];
+        for (int k = 0; k < 2 * NUM_PAIRS; k += 2) {
+            Node customer = customers.get(random.nextInt(customers.size()));
+            List<Node> neighborhood = evaluator.getNeighborhood(customer);
+            pairs[0][k] = customer;
+            pairs[1][k] = neighborhood.isEmpty()
+                    ? problem.getDepot()
+                    : neighborhood.get(random.nextInt(neighborhood.size()));
+            pairs[0][k + 1] = customer;
+            pairs[1][k + 1] = problem.getDepot();
+        }
+        return pairs;
+    }
+
+    // calls lookup for every pair index, returns true if nothing was allocated after the warmup
+    private static boolean check(String name, IntUnaryOperator lookup) {
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += lookupAll(lookup);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            sink += lookupAll(lookup);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        long calls = 2L * NUM_PAIRS * MEASURED_ROUNDS;
+        System.out.println(String.format("%-35s : %d calls, %d bytes allocated (checksum %d)",
+                name, calls, allocated, sink));
+        return allocated == 0;
+    }
+
+    private static long lookupAll(IntUnaryOperator lookup) {
+        long sum = 0;
+        for (int k = 0; k < 2 * NUM_PAIRS; k++) {
+            sum += lookup.applyAsInt(k);
+        }
+        return sum;
+    }
+}
@@ -1,8 +1,17 @@
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import construction.ClarkeWright;
+import datastructures.MigrationChannel;
+import datastructures.Node;
 import datastructures.Route;
+import datastructures.SharedBestSolution;
 import datastructures.VRPProblem;
 import datastructures.VRPSolution;
 import datastructures.CostEvaluator;
@@ -25,6 +34,18 @@ public class KGLS {
 
     private Map<String, Object> runParameters;
 
+    // the best solution of all searches of a portfolio (num_searches > 1), null for a single search
+    private SharedBestSolution sharedBest;
+    private int searchIndex;
+
+    // island model (migration_interval > 0): solutions received from / sent to the neighboring searches
+    private MigrationChannel inbox;
+    private MigrationChannel outbox;
+
+    // routes of the initial solution instead of the savings construction (searches on sub-problems)
+    private List<List<Node>> initialRoutes;
+    private Level improvementLogLevel = Level.INFO;
+
     private static final Logger logger = Logger.getLogger(Main.class.getName());
 
     // Default parameters
@@ -34,6 +55,17 @@ public class KGLS {
         DEFAULT_PARAMETERS.put("depth_relocation_chain", 3);
         DEFAULT_PARAMETERS.put("num_perturbations", 3);
         DEFAULT_PARAMETERS.put("neighborhood_size", 20);
+        DEFAULT_PARAMETERS.put("verify_costs", 0);
+        DEFAULT_PARAMETERS.put("validation_level", VRPSolution.VALIDATION_OFF);
+        DEFAULT_PARAMETERS.put("parallel_construction", 1);
+        DEFAULT_PARAMETERS.put("lazy_distances", 0);
+        DEFAULT_PARAMETERS.put("active_node_search", 0);
+        DEFAULT_PARAMETERS.put("move_cache", 0);
+        DEFAULT_PARAMETERS.put("parallel_search", 1);
+        DEFAULT_PARAMETERS.put("num_searches", 1);
+        DEFAULT_PARAMETERS.put("migration_interval", 0);
+        DEFAULT_PARAMETERS.put("decomposition_size", 0);
+        DEFAULT_PARAMETERS.put("decomposition_rounds", 10);
         DEFAULT_PARAMETERS.put("moves",
                 Arrays.asList("segment_move", "cross_exchange", "relocation_chain"));
     }
@@ -51,6 +83,9 @@ public class KGLS {
                 this.runParameters.put(entry.getKey(), entry.getValue());
             }
         }
+        if ((int) runParameters.get("num_searches") > 1 && (int) runParameters.get("decomposition_size") > 0) {
+            throw new IllegalArgumentException("num_searches and decomposition_size cannot be combined");
+        }
 
         this.costEvaluator = new CostEvaluator(
                 vrpInstance.getNodes(),
@@ -62,12 +97,54 @@ public class KGLS {
         this.maxRuntimeMillis = maxRuntimeSeconds * 1000;
     }
 
-    /** Run the KGLS loop */
+    // search of a portfolio
+    private KGLS(KGLS portfolio, Map<String, Object> runParameters, CostEvaluator costEvaluator,
+                 SharedBestSolution sharedBest, int searchIndex) {
+        this.vrpInstance = portfolio.vrpInstance;
+        this.runParameters = runParameters;
+        this.costEvaluator = costEvaluator;
+        this.sharedBest = sharedBest;
+        this.searchIndex = searchIndex;
+        this.bestSolutionCost = Double.POSITIVE_INFINITY;
+        this.lastResetValue = Double.POSITIVE_INFINITY;
+        this.maxRuntimeMillis = portfolio.maxRuntimeMillis;
+    }
+
+    // search on a sub-problem of a decomposition, starting from the given routes
+    private KGLS(VRPProblem subProblem, Map<String, Object> runParameters, long maxRuntimeMillis,
+                 List<List<Node>> initialRoutes) {
+        this.vrpInstance = subProblem;
+        this.runParameters = runParameters;
+        this.costEvaluator = new CostEvaluator(subProblem.getNodes(), subProblem.getCapacity(), runParameters);
+        this.initialRoutes = initialRoutes;
+        this.improvementLogLevel = Level.FINE;
+        this.bestSolutionCost = Double.POSITIVE_INFINITY;
+        this.lastResetValue = Double.POSITIVE_INFINITY;
+        this.maxRuntimeMillis = maxRuntimeMillis;
+    }
+
+    /** Run the KGLS loop, or a portfolio of them if num_searches > 1, or a decomposition if decomposition_size > 0 */
     public void run() {
+        int numSearches = (int) runParameters.get("num_searches");
+        if (numSearches > 1) {
+            runPortfolio(numSearches);
+        } else if ((int) runParameters.get("decomposition_size") > 0) {
+            runDecomposition();
+            printStats();
+        } else {
+            search();
+            printStats();
+        }
+    }
+
+    private void search() {
         startTimeMillis = System.currentTimeMillis();
 
         // Step 1: construct initial solution (Clark & Wright parallel savings)
-        curSolution = ClarkeWright.clarkeWrightRouteReduction(vrpInstance, costEvaluator);
+        curSolution = (initialRoutes != null)
+                ? createSolution(vrpInstance, costEvaluator, initialRoutes)
+                : ClarkeWright.clarkeWrightRouteReduction(vrpInstance, costEvaluator);
+        costEvaluator.releaseConstructionData();
 
         updateRunStats();
 
@@ -88,6 +165,10 @@ public class KGLS {
 
             updateRunStats();
 
+            if (inbox != null) {
+                migrate();
+            }
+
             if ((System.currentTimeMillis() - bestSolutionTime) > maxRuntimeMillis / 5  && bestSolutionCost < lastResetValue) {
 
                 logger.fine("Resetting solution and penalties...");
@@ -96,11 +177,307 @@ public class KGLS {
                 bestSolutionTime = System.currentTimeMillis();
             }
         }
+    }
+
+    // -------------------------------
+    // Portfolio
+    // -------------------------------
+    // changes of (depth_lin_kernighan, neighborhood_size, factor of num_perturbations) by search index modulo 4
+    private static final int[][] PORTFOLIO_VARIATIONS = {{-1, 0, 1}, {0, 0, 2}, {1, 10, 1}, {0, -5, 1}};
+
+    /**
+     * Runs num_searches independent searches on their own threads for the same time. Each search has its own
+     * solution and penalties, the neighborhoods are shared. Improvements are published to
+     * a shared best solution, which is the result of the portfolio.
+     */
+    private void runPortfolio(int numSearches) {
+        boolean parallelConstruction = (int) runParameters.get("parallel_construction") > 0;
+        SharedBestSolution sharedBest = new SharedBestSolution();
+        List<KGLS> searches = new ArrayList<>();
+        for (int k = 0; k < numSearches; k++) {
+            Map<String, Object> searchParameters = getPortfolioParameters(k);
+            CostEvaluator searchEvaluator = (k == 0) ? costEvaluator : costEvaluator.copyWithOwnPenalties(
+                    (int) searchParameters.get("neighborhood_size"), parallelConstruction);
+            searches.add(new KGLS(this, searchParameters, searchEvaluator, sharedBest, k));
+            logger.info("Search " + k + ": " + describeParameters(searchParameters));
+        }
+
+        // island model: the searches form a ring, each one sends its best solution to the next one
+        if ((int) runParameters.get("migration_interval") > 0) {
+            for (int k = 0; k < numSearches; k++) {
+                MigrationChannel channel = new MigrationChannel();
+                searches.get(k).outbox = channel;
+                searches.get((k + 1) % numSearches).inbox = channel;
+            }
+        }
+
+        startTimeMillis = System.currentTimeMillis();
+        runConcurrently(numSearches, k -> searches.get(k).search());
+
+        for (KGLS search : searches) {
+            logger.info(String.format("Search %d: %.0f after %d iterations",
+                    search.searchIndex, search.bestSolutionCost, search.iteration));
+        }
+        bestSolution = sharedBest.getSolution();
+        bestSolutionCost = sharedBest.getCosts();
+        logger.info("Best solution " + sharedBest.getCosts() + " found by search " + sharedBest.getSearchIndex());
+        searches.get(sharedBest.getSearchIndex()).printStats();
+    }
 
-        // print solver stats
-        printStats();
+    // Every migration_interval iterations the best solution is sent to the next search. A received solution
+    // which is better than the own best one replaces the current solution as in resetToBestSolution.
+    private void migrate() {
+        if (iteration % (int) runParameters.get("migration_interval") == 0) {
+            outbox.send(bestSolution);
+        }
 
+        VRPSolution migrant = inbox.receive();
+        if (migrant != null && migrant.getCosts(true) < bestSolutionCost) {
+            logger.fine("Search " + searchIndex + " accepts a solution of cost " + migrant.getCosts(true));
+            Map<String, Double> stats = new HashMap<>(curSolution.getAllStats());
+            curSolution = migrant.copy(costEvaluator);
+            curSolution.setStats(stats);
+            costEvaluator.resetPenalties();
+            updateRunStats();
+        }
+    }
 
+    // Search 0 uses the run parameters. The searches are deterministic, so the others vary them to diverge:
+    // the operator order is rotated and the depth of Lin-Kernighan, the neighborhood size and the number of
+    // perturbations are changed.
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getPortfolioParameters(int searchIndex) {
+        Map<String, Object> searchParameters = new HashMap<>(runParameters);
+        searchParameters.put("num_searches", 1);
+        if (searchIndex == 0) return searchParameters;
+
+        List<String> moves = new ArrayList<>((List<String>) runParameters.get("moves"));
+        Collections.rotate(moves, searchIndex);
+        searchParameters.put("moves", moves);
+
+        int[] variation = PORTFOLIO_VARIATIONS[searchIndex % PORTFOLIO_VARIATIONS.length];
+        searchParameters.put("depth_lin_kernighan",
+                Math.max(2, (int) runParameters.get("depth_lin_kernighan") + variation[0]));
+        searchParameters.put("neighborhood_size",
+                Math.max(1, (int) runParameters.get("neighborhood_size") + variation[1]));
+        searchParameters.put("num_perturbations",
+                (int) runParameters.get("num_perturbations") * variation[2]
+                        + (searchIndex - 1) / PORTFOLIO_VARIATIONS.length);
+        return searchParameters;
+    }
+
+    // -------------------------------
+    // Decomposition
+    // -------------------------------
+    /**
+     * Decomposition for very large instances: in every round the routes are partitioned into sectors around the
+     * depot with about decomposition_size customers each. Each sector is solved as a VRPProblem of its own by a
+     * KGLS search on its own thread, starting from its current routes. Improved sectors replace their routes
+     * in the solution. The sectors start at a different angle in every round, so their boundaries move.
+     */
+    private void runDecomposition() {
+        startTimeMillis = System.currentTimeMillis();
+        curSolution = ClarkeWright.clarkeWrightRouteReduction(vrpInstance, costEvaluator);
+        costEvaluator.releaseConstructionData();
+        updateRunStats();
+
+        int decompositionSize = (int) runParameters.get("decomposition_size");
+        long roundMillis = maxRuntimeMillis / Math.max(1, (int) runParameters.get("decomposition_rounds"));
+        Map<String, Object> subParameters = new HashMap<>(runParameters);
+        subParameters.put("decomposition_size", 0);
+
+        iteration = 0;
+        while (!shouldAbort()) {
+            iteration++;
+            long subRuntimeMillis = Math.min(roundMillis,
+                    maxRuntimeMillis - (System.currentTimeMillis() - startTimeMillis));
+
+            // sectors with a single route are kept as they are
+            List<SubProblem> subProblems = new ArrayList<>();
+            List<Route> keptRoutes = new ArrayList<>();
+            for (List<Route> sector : partitionRoutes(curSolution, decompositionSize, iteration * GOLDEN_ANGLE)) {
+                if (sector.size() > 1) {
+                    subProblems.add(new SubProblem(sector, vrpInstance.getDepot(), vrpInstance.getCapacity()));
+                } else {
+                    keptRoutes.addAll(sector);
+                }
+            }
+
+            KGLS[] subSearches = new KGLS[subProblems.size()];
+            runConcurrently(subProblems.size(), i -> {
+                SubProblem subProblem = subProblems.get(i);
+                subSearches[i] = new KGLS(subProblem.problem, subParameters, subRuntimeMillis, subProblem.routes);
+                subSearches[i].search();
+            });
+
+            // stitch the sectors back together, improved sectors with the routes of their search
+            VRPSolution stitched = new VRPSolution(vrpInstance, costEvaluator);
+            stitched.setStats(curSolution.getAllStats());
+            for (Route route : keptRoutes) {
+                stitched.addRoute(route.getCustomers());
+            }
+            int numImproved = 0;
+            for (int i = 0; i < subProblems.size(); i++) {
+                SubProblem subProblem = subProblems.get(i);
+                KGLS subSearch = subSearches[i];
+                if (subSearch.bestSolutionCost < subProblem.costs) {
+                    numImproved++;
+                    for (List<Node> route : subProblem.toInstanceRoutes(subSearch.bestSolution)) {
+                        stitched.addRoute(route);
+                    }
+                } else {
+                    for (Route route : subProblem.sectorRoutes) {
+                        stitched.addRoute(route.getCustomers());
+                    }
+                }
+                // move counts are summed. The sub-problems ran at the same time, so their times are averaged
+                // and remain a share of the runtime (the CPU share per sector)
+                for (Map.Entry<String, Double> stat : subSearch.curSolution.getAllStats().entrySet()) {
+                    double value = stat.getValue();
+                    if (stat.getKey().startsWith("time_")) {
+                        value /= subProblems.size();
+                    }
+                    stitched.addStat(stat.getKey(), value);
+                }
+            }
+            curSolution = stitched;
+
+            logger.fine("Round " + iteration + ": " + numImproved + " of " + subProblems.size()
+                    + " sectors improved");
+            updateRunStats();
+        }
+    }
+
+    // golden angle (in radians) by which the start of the sectors is rotated from round to round
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
+    // Routes sorted by the polar angle of their center around the depot, counted from startAngle, and cut into
+    // consecutive sectors of at least decompositionSize customers. A small remainder joins the last sector.
+    private static List<List<Route>> partitionRoutes(VRPSolution solution, int decompositionSize, double startAngle) {
+        Node depot = solution.getProblem().getDepot();
+        List<Route> routes = new ArrayList<>();
+        Map<Route, Double> angles = new HashMap<>();
+        for (Route route : solution.getRoutes()) {
+            if (route.getSize() == 0) continue;
+            double sumX = 0, sumY = 0;
+            for (Node customer : route.getCustomers()) {
+                sumX += customer.getX();
+                sumY += customer.getY();
+            }
+            double angle = Math.atan2(sumY / route.getSize() - depot.getY(), sumX / route.getSize() - depot.getX());
+            angles.put(route, ((angle - startAngle) % (2 * Math.PI) + 2 * Math.PI) % (2 * Math.PI));
+            routes.add(route);
+        }
+        routes.sort(Comparator.comparingDouble(angles::get));
+
+        List<List<Route>> sectors = new ArrayList<>();
+        List<Route> sector = new ArrayList<>();
+        int numCustomers = 0;
+        for (Route route : routes) {
+            sector.add(route);
+            numCustomers += route.getSize();
+            if (numCustomers >= decompositionSize) {
+                sectors.add(sector);
+                sector = new ArrayList<>();
+                numCustomers = 0;
+            }
+        }
+        if (!sector.isEmpty()) {
+            if (numCustomers < decompositionSize / 2 && !sectors.isEmpty()) {
+                sectors.get(sectors.size() - 1).addAll(sector);
+            } else {
+                sectors.add(sector);
+            }
+        }
+        return sectors;
+    }
+
+    // the routes of a sector as a VRPProblem of its own, with nodes indexed densely within the sub-problem
+    private static final class SubProblem {
+        final List<Route> sectorRoutes;
+        final VRPProblem problem;
+        final Node[] instanceNodes;     // node index in the sub-problem -> node of the instance
+        final List<List<Node>> routes;  // customers of the sector's routes, as nodes of the sub-problem
+        final int costs;                // costs of the sector's routes
+
+        SubProblem(List<Route> sectorRoutes, Node depot, int capacity) {
+            this.sectorRoutes = sectorRoutes;
+            List<Node> nodes = new ArrayList<>();
+            List<Node> instanceNodes = new ArrayList<>();
+            nodes.add(new Node(depot.getNodeId(), 0, depot.getX(), depot.getY(), depot.getDemand(), true));
+            instanceNodes.add(depot);
+
+            this.routes = new ArrayList<>();
+            int costs = 0;
+            for (Route route : sectorRoutes) {
+                List<Node> subRoute = new ArrayList<>();
+                for (Node customer : route.getCustomers()) {
+                    Node node = new Node(customer.getNodeId(), nodes.size(),
+                            customer.getX(), customer.getY(), customer.getDemand(), false);
+                    nodes.add(node);
+                    instanceNodes.add(customer);
+                    subRoute.add(node);
+                }
+                routes.add(subRoute);
+                costs += route.getCost();
+            }
+            this.problem = new VRPProblem(nodes, capacity);
+            this.instanceNodes = instanceNodes.toArray(new Node[0]);
+            this.costs = costs;
+        }
+
+        List<List<Node>> toInstanceRoutes(VRPSolution subSolution) {
+            List<List<Node>> instanceRoutes = new ArrayList<>();
+            for (Route route : subSolution.getRoutes()) {
+                if (route.getSize() == 0) continue;
+                List<Node> instanceRoute = new ArrayList<>(route.getSize());
+                for (Node customer : route.getCustomers()) {
+                    instanceRoute.add(instanceNodes[customer.getIndex()]);
+                }
+                instanceRoutes.add(instanceRoute);
+            }
+            return instanceRoutes;
+        }
+    }
+
+    private static VRPSolution createSolution(VRPProblem problem, CostEvaluator costEvaluator,
+                                              List<List<Node>> routes) {
+        VRPSolution solution = new VRPSolution(problem, costEvaluator);
+        for (List<Node> route : routes) {
+            solution.addRoute(route);
+        }
+        return solution;
+    }
+
+    // Runs task(i) for i in [0, numTasks), each on a thread of its own. The tasks are long-running searches,
+    // the common fork-join pool is left to the parallel work within the searches.
+    private static void runConcurrently(int numTasks, IntConsumer task) {
+        if (numTasks == 0) return;
+        ExecutorService executor = Executors.newFixedThreadPool(numTasks);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < numTasks; i++) {
+                int taskIndex = i;
+                running.add(executor.submit(() -> task.accept(taskIndex)));
+            }
+            for (Future<?> search : running) {
+                search.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Parallel searches were interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Parallel search failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String describeParameters(Map<String, Object> searchParameters) {
+        return "moves=" + searchParameters.get("moves")
+                + " depth_lin_kernighan=" + searchParameters.get("depth_lin_kernighan")
+                + " neighborhood_size=" + searchParameters.get("neighborhood_size")
+                + " num_perturbations=" + searchParameters.get("num_perturbations");
     }
 
     private void printStats(){
@@ -118,8 +495,9 @@ public class KGLS {
                 }
             }
 
-            // time of moves
-            logger.info("Time Distribution");
+            // time of moves, averaged over the sectors of a decomposition
+            logger.info((int) runParameters.get("decomposition_size") > 0
+                    ? "Time Distribution (CPU share per sector)" : "Time Distribution");
             for (Map.Entry<String, Double> entry : stats.entrySet()) {
                 if (entry.getKey().startsWith("time_")) { 
                     Double time_percent = entry.getValue() / (this.maxRuntimeMillis) * 100;
@@ -131,13 +509,19 @@ public class KGLS {
     }
 
     private void updateRunStats() {
-        double currentCost = costEvaluator.getSolutionCosts(curSolution, false);
+        double currentCost = curSolution.getCosts(true);
 
         if (currentCost < bestSolutionCost) {
             bestSolutionCost = currentCost;
             bestSolution = curSolution.copy();
             bestSolutionTime = System.currentTimeMillis();
-            logger.info("Iteration " + iteration + " (" + (bestSolutionTime - startTimeMillis) / 1000 + "s): " + currentCost);
+            if (sharedBest == null) {
+                logger.log(improvementLogLevel,
+                    "Iteration " + iteration + " (" + (bestSolutionTime - startTimeMillis) / 1000 + "s): " + currentCost);
+            } else if (sharedBest.offer(bestSolution, searchIndex)) {
+                logger.info("Search " + searchIndex + ", iteration " + iteration
+                        + " (" + (bestSolutionTime - startTimeMillis) / 1000 + "s): " + currentCost);
+            }
         }
 
         Map<String, Object> stats = new HashMap<>();
@@ -14,15 +14,13 @@ public final class ClarkeWright {
     public static List<Saving> computeSavings(List<Node> customers, Node depot, CostEvaluator evaluator) {
         List<Saving> savingsList = new ArrayList<>();
 
-        for (Node node1 : customers) {
-            for (Node node2 : evaluator.getAdvancedNeighborhood(node1)) {
-                double saving = evaluator.getDistance(node1, depot)
-                        + evaluator.getDistance(node2, depot)
-                        - evaluator.getDistance(node1, node2);
+        evaluator.forEachAdvancedNeighbor(customers, (node1, node2) -> {
+            double saving = evaluator.getDistance(node1, depot)
+                    + evaluator.getDistance(node2, depot)
+                    - evaluator.getDistance(node1, node2);
 
-                savingsList.add(new Saving(node1, node2, saving));
-            }
-        }
+            savingsList.add(new Saving(node1, node2, saving));
+        });
 
         Collections.sort(savingsList);
         return savingsList;
@@ -39,16 +37,14 @@ public final class ClarkeWright {
         int maxDemand = demands.get(demands.size() - 1) + demands.get(demands.size() - 2);
 
         List<Saving> weightedSavings = new ArrayList<>();
-        for (Node node1 : customers) {
-            for (Node node2 : evaluator.getAdvancedNeighborhood(node1)) {
-                double saving = evaluator.getDistance(node1, depot)
-                        + evaluator.getDistance(node2, depot)
-                        - evaluator.getDistance(node1, node2);
-
-                double weighted = saving / maxSaving + (node1.demand + node2.demand) / (double) maxDemand;
-                weightedSavings.add(new Saving(node1, node2, weighted));
-            }
-        }
+        evaluator.forEachAdvancedNeighbor(customers, (node1, node2) -> {
+            double saving = evaluator.getDistance(node1, depot)
+                    + evaluator.getDistance(node2, depot)
+                    - evaluator.getDistance(node1, node2);
+
+            double weighted = saving / maxSaving + (node1.demand + node2.demand) / (double) maxDemand;
+            weightedSavings.add(new Saving(node1, node2, weighted));
+        });
 
         Collections.sort(weightedSavings);
         return weightedSavings;
@@ -66,7 +62,7 @@ public final class ClarkeWright {
         Set<Node> canBeExtended = new HashSet<>();
         Set<Node> cannotBeExtended = new HashSet<>();
 
-        VRPSolution solution = new VRPSolution(instance);
+        VRPSolution solution = new VRPSolution(instance, evaluator);
 
         for (Saving saving : savingsList) {
             Node node1 = saving.fromNode;
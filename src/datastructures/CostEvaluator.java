@@ -1,5 +1,6 @@
 package datastructures;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 
 class MaxHeapWithUpdate {
@@ -29,139 +30,232 @@ class MaxHeapWithUpdate {
  * CostEvaluator: computes distances, neighborhoods, penalization logic
  */
 public class CostEvaluator {
+    private static final int ADVANCED_NEIGHBORHOOD_SIZE = 100;
+
     private boolean penalizationEnabled = false;
-    private final Map<Edge, Integer> edgePenalties = new HashMap<>();
+    private long penaltyVersion = 0; // bumped whenever a penalized distance may have changed
+    // penalty counts of the penalized edges; penalized distances are derived from the base costs
+    private final PenaltyMap edgePenalties = new PenaltyMap(1024);
     private double baselineCost = 0.0;
     private MaxHeapWithUpdate edgeRanking;
 
     private final int neighborhoodSize;
     private final int capacity;
 
-    private final Map<Integer, Map<Integer, Integer>> costs = new HashMap<>();
-    private final Map<Integer, Map<Integer, Integer>> penalizedCosts = new HashMap<>();
-    private final Map<Node, List<Node>> neighborhood = new HashMap<>();
-    private final Map<Node, List<Node>> advancedNeighborhood = new HashMap<>();
+    // never changed after construction, so they are shared by the copies of copyWithOwnPenalties
+    private final List<Node> nodes;
+    private final DistanceMatrix costs;
+    private final Map<Node, List<Node>> neighborhood;
+    // only needed to construct solutions and evaluator copies, dropped by releaseConstructionData.
+    // In lazy distance mode the advanced neighborhood is not stored, its pairs are queried from the grid.
+    private SpatialGrid grid;
+    private Map<Node, List<Node>> advancedNeighborhood;
+    private long[] lastAdvancedKey; // lazy mode: rank key of the last advanced neighbor of each customer
 
     private String penalizationCriterium;
 
     public CostEvaluator(List<Node> nodes, int capacity, Map<String, Object> runParameters) {
         this.capacity = capacity;
         this.neighborhoodSize = (int) runParameters.get("neighborhood_size");
+        // the neighborhoods are built per node, in parallel if requested; the result does not depend on it
+        boolean parallel = (int) runParameters.get("parallel_construction") > 0;
+        boolean lazyDistances = (int) runParameters.get("lazy_distances") > 0;
+
+        // Nearest customers of every customer (from a spatial grid), sorted by distance
+        this.nodes = nodes;
+        this.grid = new SpatialGrid(nodes);
+        int numNearest = lazyDistances ? neighborhoodSize : Math.max(ADVANCED_NEIGHBORHOOD_SIZE, neighborhoodSize);
+        int[][] nearestCustomers = computeNearestCustomers(numNearest, parallel);
+
+        if (lazyDistances) {
+            // Compute distances on demand, only a bounded cache of recent pairs is kept
+            this.costs = new LazyDistanceMatrix(nodes.size());
+        } else {
+            // Compute distances on demand, a square root is cheaper than looking the pair up in a table
+            this.costs = new EuclideanDistances();
+        }
 
-        // Compute Euclidean distances and nearest neighbors
-        for (Node node1 : nodes) {
-            Map<Integer, Integer> innerCosts = new HashMap<>();
-            for (Node node2 : nodes) {
-                innerCosts.put(node2.getNodeId(), computeEuclideanDistance(node1, node2));
-            }
-
-            // sort and keep only 100 nearest
-            List<Map.Entry<Integer, Integer>> sorted = new ArrayList<>(innerCosts.entrySet());
-            sorted.sort(Map.Entry.comparingByValue());
-
-            Map<Integer, Integer> limited = new HashMap<>();
-            int limit = Math.min(100, sorted.size());
-            for (int i = 0; i < limit; i++) {
-                limited.put(sorted.get(i).getKey(), sorted.get(i).getValue());
-            }
+        // neighborhoods
+        this.neighborhood = computeNeighborhood(nodes, nearestCustomers, neighborhoodSize, parallel);
+        if (lazyDistances) {
+            this.lastAdvancedKey = computeLastAdvancedKeys(parallel);
+        } else {
+            this.advancedNeighborhood = computeNeighborhood(nodes, nearestCustomers, ADVANCED_NEIGHBORHOOD_SIZE,
+                    parallel);
+        }
+        this.baselineCost = computeBaselineCost(parallel);
 
-            // always keep depot distances
-            for (Node depot : nodes) {
-                if (depot.isDepot()) {
-                    limited.put(depot.getNodeId(), innerCosts.get(depot.getNodeId()));
-                }
-            }
+        this.penalizationCriterium = "width"; // start cycle
+    }
 
-            costs.put(node1.getNodeId(), limited);
-        }
+    /**
+     * Evaluator for another search on the same instance: the distances and the advanced neighborhood are
+     * shared with this evaluator, the neighborhood is shared if it has the same size. Penalties, the edge
+     * ranking and the penalization state are separate, so both evaluators can be used on different threads.
+     */
+    public CostEvaluator copyWithOwnPenalties(int neighborhoodSize, boolean parallel) {
+        return new CostEvaluator(this, neighborhoodSize, parallel);
+    }
 
-        // Initialize penalized costs same as costs
-        for (Node node1 : nodes) {
-            penalizedCosts.put(node1.getNodeId(), new HashMap<>());
-            for (Integer node2Id : costs.get(node1.getNodeId()).keySet()) {
-                penalizedCosts.get(node1.getNodeId()).put(node2Id, costs.get(node1.getNodeId()).get(node2Id));
-            }
+    private CostEvaluator(CostEvaluator other, int neighborhoodSize, boolean parallel) {
+        if (other.grid == null)
+            throw new IllegalStateException("The construction data of the evaluator has already been released");
+        this.capacity = other.capacity;
+        this.neighborhoodSize = neighborhoodSize;
+        this.nodes = other.nodes;
+        this.costs = other.costs;
+        this.grid = other.grid;
+        this.advancedNeighborhood = other.advancedNeighborhood;
+        this.lastAdvancedKey = other.lastAdvancedKey;
+        if (neighborhoodSize == other.neighborhoodSize) {
+            this.neighborhood = other.neighborhood;
+            this.baselineCost = other.baselineCost;
+        } else {
+            this.neighborhood = computeNeighborhood(nodes, computeNearestCustomers(neighborhoodSize, parallel),
+                    neighborhoodSize, parallel);
+            this.baselineCost = computeBaselineCost(parallel);
         }
 
-        // neighborhoods
-        this.neighborhood.putAll(computeNeighborhood(nodes, neighborhoodSize));
-        this.advancedNeighborhood.putAll(computeNeighborhood(nodes, 100));
+        this.penalizationCriterium = "width"; // start cycle
+    }
 
-        // baseline cost
-        double total = 0.0;
-        int count = 0;
+    // average distance between a customer and its neighbors
+    private double computeBaselineCost(boolean parallel) {
+        // integer sums, so the summation order does not matter
+        long[] totalPerNode = new long[nodes.size()];
+        ParallelLoops.forEachIndex(nodes.size(), parallel, i -> {
+            if (!nodes.get(i).isDepot()) {
+                for (Node other : this.neighborhood.get(nodes.get(i))) {
+                    totalPerNode[i] += getDistance(nodes.get(i), other);
+                }
+            }
+        });
+        long total = 0;
+        long count = 0;
         for (Node node : nodes) {
             if (!node.isDepot()) {
-                for (Node other : this.neighborhood.get(node)) {
-                    total += getDistance(node, other);
-                    count++;
-                }
+                total += totalPerNode[node.getIndex()];
+                count += this.neighborhood.get(node).size();
             }
         }
-        this.baselineCost = count > 0 ? total / count : 0.0;
-
-        this.penalizationCriterium = "width"; // start cycle
+        return count > 0 ? (double) total / count : 0.0;
     }
 
-    private int computeEuclideanDistance(Node n1, Node n2) {
-        return (int) Math.round(
-                Math.sqrt(Math.pow(n1.getX() - n2.getX(), 2) + Math.pow(n1.getY() - n2.getY(), 2))
-        );
+    public int getBaseDistance(Node n1, Node n2) {
+        return costs.getDistance(n1, n2);
     }
 
     public void resetPenalties() {
         edgePenalties.clear();
-        
-        // Initialize penalized costs same as costs
-        for (int node1Id : costs.keySet()) {
-            penalizedCosts.put(node1Id, new HashMap<>());
-            for (Integer node2Id : costs.get(node1Id).keySet()) {
-                penalizedCosts.get(node1Id).put(node2Id, costs.get(node1Id).get(node2Id));
+        penaltyVersion++;
+    }
+
+    public List<Node> getNeighborhood(Node node) {
+        return neighborhood.getOrDefault(node, Collections.emptyList());
+    }
+
+    /**
+     * Calls action for each customer and each node of its advanced neighborhood (the 100 nearest customers,
+     * made symmetric). In lazy distance mode the pairs are queried from the spatial grid instead of a stored
+     * neighborhood, so they come in a different order.
+     */
+    public void forEachAdvancedNeighbor(List<Node> customers, BiConsumer<Node, Node> action) {
+        if (grid == null)
+            throw new IllegalStateException("The advanced neighborhood has already been released");
+        for (Node node : customers) {
+            if (advancedNeighborhood != null) {
+                for (Node neighbor : advancedNeighborhood.getOrDefault(node, Collections.emptyList())) {
+                    action.accept(node, neighbor);
+                }
+                continue;
+            }
+            // a pair which is not in the nearest customers of the neighbor is added to the neighbor's list, too
+            for (int neighborIndex : grid.nearestCustomers(node, ADVANCED_NEIGHBORHOOD_SIZE)) {
+                Node neighbor = nodes.get(neighborIndex);
+                action.accept(node, neighbor);
+                if (SpatialGrid.rankKey(neighbor, node) > lastAdvancedKey[neighborIndex]) {
+                    action.accept(neighbor, node);
+                }
             }
         }
     }
 
-    public List<Node> getNeighborhood(Node node) {
-        return neighborhood.getOrDefault(node, new ArrayList<>());
+    /**
+     * Drops the spatial grid and the advanced neighborhood once the initial solution has been constructed,
+     * so that only the distances, the neighborhood and the penalties are kept during the search.
+     */
+    public void releaseConstructionData() {
+        grid = null;
+        advancedNeighborhood = null;
+        lastAdvancedKey = null;
     }
 
-    public List<Node> getAdvancedNeighborhood(Node node) {
-        return advancedNeighborhood.getOrDefault(node, new ArrayList<>());
+    private int[][] computeNearestCustomers(int numNearest, boolean parallel) {
+        int[][] nearestCustomers = new int[nodes.size()][];
+        ParallelLoops.forEachIndex(nodes.size(), parallel, i -> {
+            if (!nodes.get(i).isDepot()) {
+                nearestCustomers[i] = grid.nearestCustomers(nodes.get(i), numNearest);
+            }
+        });
+        return nearestCustomers;
     }
 
-    private Map<Node, List<Node>> computeNeighborhood(List<Node> nodes, int size) {
-        Map<Node, List<Node>> neigh = new HashMap<>();
-        for (Node node : nodes) {
-            if (!node.isDepot()) {
-                neigh.put(node, getNearestNeighbors(node, nodes, size));
+    // rank key of the last of the advanced neighbors of each customer, a customer with fewer has all others
+    private long[] computeLastAdvancedKeys(boolean parallel) {
+        long[] lastKeys = new long[nodes.size()];
+        ParallelLoops.forEachIndex(nodes.size(), parallel, i -> {
+            if (!nodes.get(i).isDepot()) {
+                int[] nearest = grid.nearestCustomers(nodes.get(i), ADVANCED_NEIGHBORHOOD_SIZE);
+                lastKeys[i] = nearest.length < ADVANCED_NEIGHBORHOOD_SIZE ? Long.MAX_VALUE
+                        : SpatialGrid.rankKey(nodes.get(i), nodes.get(nearest[nearest.length - 1]));
             }
-        }
+        });
+        return lastKeys;
+    }
 
-        // make symmetric
-        for (Map.Entry<Node, List<Node>> entry : neigh.entrySet()) {
-            Node node = entry.getKey();
-            for (Node neighbor : entry.getValue()) {
-                neigh.computeIfAbsent(neighbor, k -> new ArrayList<>());
-                if (!neigh.get(neighbor).contains(node)) {
-                    neigh.get(neighbor).add(node);
+    private Map<Node, List<Node>> computeNeighborhood(List<Node> nodes, int[][] nearestCustomers, int size,
+                                                      boolean parallel) {
+        int numNodes = nodes.size();
+        List<List<Node>> neighborLists = new ArrayList<>(Collections.nCopies(numNodes, null));
+        ParallelLoops.forEachIndex(numNodes, parallel, i -> {
+            if (!nodes.get(i).isDepot()) {
+                neighborLists.set(i, getNearestNeighbors(nearestCustomers[i], nodes, size));
+            }
+        });
+
+        // make symmetric: a node is appended to the list of each of its neighbors which does not have it yet.
+        // The missing entries are found per node (read-only, so in parallel), then appended in node order.
+        int[][] missing = new int[numNodes][];
+        ParallelLoops.forEachIndex(numNodes, parallel, i -> {
+            List<Node> neighbors = neighborLists.get(i);
+            if (neighbors == null) return;
+            int[] missingAt = new int[neighbors.size()];
+            int numMissing = 0;
+            for (Node neighbor : neighbors) {
+                if (!neighborLists.get(neighbor.getIndex()).contains(nodes.get(i))) {
+                    missingAt[numMissing++] = neighbor.getIndex();
                 }
             }
+            missing[i] = Arrays.copyOf(missingAt, numMissing);
+        });
+
+        Map<Node, List<Node>> neigh = new HashMap<>();
+        for (int i = 0; i < numNodes; i++) {
+            if (missing[i] == null) continue;
+            for (int neighbor : missing[i]) {
+                neighborLists.get(neighbor).add(nodes.get(i));
+            }
+            neigh.put(nodes.get(i), neighborLists.get(i));
         }
 
         return neigh;
     }
 
-    private List<Node> getNearestNeighbors(Node node, List<Node> nodes, int size) {
-        List<Node> sorted = new ArrayList<>(nodes);
-        sorted.sort(Comparator.comparingInt(n -> computeEuclideanDistance(n, node)));
-
-        List<Node> nearest = new ArrayList<>();
-        Iterator<Node> it = sorted.iterator();
-        while (it.hasNext() && nearest.size() < size) {
-            Node candidate = it.next();
-            if (!candidate.isDepot() && !candidate.equals(node)) {
-                nearest.add(candidate);
-            }
+    // the first size entries of a node's nearest customers
+    private List<Node> getNearestNeighbors(int[] nearestCustomers, List<Node> nodes, int size) {
+        List<Node> nearest = new ArrayList<>(size);
+        for (int i = 0; i < Math.min(size, nearestCustomers.length); i++) {
+            nearest.add(nodes.get(nearestCustomers[i]));
         }
         return nearest;
     }
@@ -195,7 +289,7 @@ public class CostEvaluator {
                     default:
                         value = 0.0;
                 }
-                int penalty = edgePenalties.getOrDefault(edge, 0);
+                int penalty = edgePenalties.get(PenaltyMap.key(edge.getFirstNode(), edge.getSecondNode()));
                 edge.setValue((int)(value / (1 + penalty)));
                 edgesInSolution.add(edge);
             }
@@ -209,9 +303,7 @@ public class CostEvaluator {
     }
 
     private double computeEdgeLengthValue(Edge edge) {
-        int id1 = edge.getFirstNode().getNodeId();
-        int id2 = edge.getSecondNode().getNodeId();
-        return costs.getOrDefault(id1, new HashMap<>()).getOrDefault(id2, computeEuclideanDistance(edge.getFirstNode(), edge.getSecondNode()));
+        return getBaseDistance(edge.getFirstNode(), edge.getSecondNode());
     }
 
     private double computeEdgeWidthValue(Edge edge, double centerX, double centerY, Route route) {
@@ -220,38 +312,53 @@ public class CostEvaluator {
 
     public void enablePenalization() { penalizationEnabled = true; }
     public void disablePenalization() { penalizationEnabled = false; }
+    public boolean isPenalizationEnabled() { return penalizationEnabled; }
+    public long getPenaltyVersion() { return penaltyVersion; }
 
     public int getDistance(Node n1, Node n2) {
         if (!penalizationEnabled) {
-            return costs.get(n1.getNodeId()).getOrDefault(n2.getNodeId(), computeEuclideanDistance(n1, n2));
+            return getBaseDistance(n1, n2);
         } else {
-            return penalizedCosts.get(n1.getNodeId()).getOrDefault(n2.getNodeId(),
-                    computeEuclideanDistance(n1, n2) + (int) (0.1 * baselineCost * edgePenalties.getOrDefault(new Edge(n1, n2), 0)));
+            return getPenalizedDistance(n1, n2);
         }
     }
 
-    public Edge getAndPenalizeWorstEdge() {
-        Edge worstEdge = edgeRanking.getMaxElement();
-        edgePenalties.put(worstEdge, edgePenalties.getOrDefault(worstEdge, 0) + 1);
+    /**
+     * Penalized distance, independent of whether penalization is currently enabled.
+     */
+    public int getPenalizedDistance(Node n1, Node n2) {
+        int baseCost = getBaseDistance(n1, n2);
+        int penalty = edgePenalties.get(PenaltyMap.key(n1, n2));
+        return penalty == 0 ? baseCost : penalizedCost(baseCost, penalty);
+    }
 
-        int id1 = worstEdge.getFirstNode().getNodeId();
-        int id2 = worstEdge.getSecondNode().getNodeId();
+    private int penalizedCost(int baseCost, int penalty) {
+        return (int) Math.round(baseCost + 0.1 * baselineCost * penalty);
+    }
 
-        int baseCost = costs.get(id1).getOrDefault(id2, computeEuclideanDistance(worstEdge.getFirstNode(), worstEdge.getSecondNode()));
-        int penalized = (int) Math.round(baseCost + 0.1 * baselineCost * edgePenalties.get(worstEdge));
+    public Edge getAndPenalizeWorstEdge() {
+        Edge worstEdge = edgeRanking.getMaxElement();
+        Node n1 = worstEdge.getFirstNode();
+        Node n2 = worstEdge.getSecondNode();
 
-        penalizedCosts.get(id1).put(id2, penalized);
-        penalizedCosts.get(id2).put(id1, penalized);
+        int penalty = edgePenalties.increment(PenaltyMap.key(n1, n2));
+        penaltyVersion++;
 
-        worstEdge.setValue(baseCost / (1 + edgePenalties.get(worstEdge)));
+        int baseCost = getBaseDistance(n1, n2);
+        worstEdge.setValue(baseCost / (1 + penalty));
         edgeRanking.insertElement(worstEdge);
         return worstEdge;
     }
 
     public void penalize(Edge edge) {
-        edgePenalties.put(edge, edgePenalties.getOrDefault(edge, 0) + 1);
+        edgePenalties.increment(PenaltyMap.key(edge.getFirstNode(), edge.getSecondNode()));
+        penaltyVersion++;
     }
 
+    /**
+     * Full recomputation of the solution costs. The solution keeps the same sums
+     * incrementally (VRPSolution.getCosts), this is meant for verification.
+     */
     public int getSolutionCosts(VRPSolution solution, boolean ignorePenalties) {
         int cost = 0;
         for (Route route : solution.getRoutes()) {
@@ -261,7 +368,7 @@ public class CostEvaluator {
                     Node n1 = nodes.get(i);
                     Node n2 = nodes.get(i + 1);
                     if (ignorePenalties) {
-                        cost += costs.get(n1.getNodeId()).getOrDefault(n2.getNodeId(), computeEuclideanDistance(n1, n2));
+                        cost += getBaseDistance(n1, n2);
                     } else {
                         cost += getDistance(n1, n2);
                     }
@@ -271,18 +378,6 @@ public class CostEvaluator {
         return cost;
     }
 
-    public int getRouteCosts(Route route) {
-        if (route.getSize() == 0) return 0;
-        int cost = 0;
-        List<Node> nodes = route.getNodes();
-        for (int i = 0; i < nodes.size() - 1; i++) {
-            Node n1 = nodes.get(i);
-            Node n2 = nodes.get(i + 1);
-            cost += costs.get(n1.getNodeId()).getOrDefault(n2.getNodeId(), computeEuclideanDistance(n1, n2));
-        }
-        return cost;
-    }
-
     private double computeEdgeWidth(Edge edge, double cx, double cy, Node depot) {
         Node n1 = edge.getFirstNode();
         Node n2 = edge.getSecondNode();
@@ -0,0 +1,13 @@
+package datastructures;
+
+
+/**
+ * Unpenalized distances between nodes, as used by the CostEvaluator.
+ */
+interface DistanceMatrix {
+
+    /**
+     * Distance between two nodes (symmetric).
+     */
+    int getDistance(Node n1, Node n2);
+}
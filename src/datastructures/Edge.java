@@ -1,5 +1,4 @@
 package datastructures;
-import java.util.Objects;
 
 public final class Edge implements Comparable<Edge> {
     private final Node first;   // max nodeId first (ties allowed)
@@ -58,7 +57,8 @@ public final class Edge implements Comparable<Edge> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(first, second);
+        // same value as Objects.hash(first, second), without the varargs array
+        return 31 * (31 + first.hashCode()) + second.hashCode();
     }
 
     @Override
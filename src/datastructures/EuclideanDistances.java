@@ -0,0 +1,19 @@
+package datastructures;
+
+
+/**
+ * EuclideanDistances: rounded Euclidean distances, computed from the coordinates on every lookup.
+ */
+final class EuclideanDistances implements DistanceMatrix {
+
+    @Override
+    public int getDistance(Node n1, Node n2) {
+        return euclideanDistance(n1, n2);
+    }
+
+    static int euclideanDistance(Node n1, Node n2) {
+        double dx = n1.getX() - n2.getX();
+        double dy = n1.getY() - n2.getY();
+        return (int) Math.round(Math.sqrt(dx * dx + dy * dy));
+    }
+}
@@ -0,0 +1,56 @@
+package datastructures;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * LazyDistanceMatrix: keeps no distance table, distances are computed from the coordinates on demand.
+ *
+ * Recently used pairs are kept in a direct-mapped cache of SLOTS_PER_NODE slots per node (at most MAX_SLOTS).
+ * Each slot is a single long holding the pair key (upper bits) and the distance (lower bits), so concurrent
+ * readers never see a key with the value of another pair. Distances which do not fit into the value bits are not cached.
+ */
+final class LazyDistanceMatrix implements DistanceMatrix {
+    private static final int SLOTS_PER_NODE = 4;
+    private static final int MAX_SLOTS = 1 << 20;
+
+    private final int numNodes;
+    private final int valueBits;
+    private final long valueMask;
+    private final int slotMask;
+    private final AtomicLongArray cache; // 0 = empty slot
+
+    LazyDistanceMatrix(int numNodes) {
+        this.numNodes = numNodes;
+        // key = i * numNodes + j + 1 for i <= j, the remaining bits hold the distance
+        int keyBits = 64 - Long.numberOfLeadingZeros((long) numNodes * numNodes + 1);
+        this.valueBits = 64 - keyBits;
+        this.valueMask = valueBits >= 63 ? Long.MAX_VALUE : (1L << valueBits) - 1;
+        int slots = Integer.highestOneBit(Math.max(1, Math.min(MAX_SLOTS, SLOTS_PER_NODE * numNodes)));
+        this.slotMask = slots - 1;
+        this.cache = new AtomicLongArray(slots);
+    }
+
+    @Override
+    public int getDistance(Node n1, Node n2) {
+        int i = Math.min(n1.getIndex(), n2.getIndex());
+        int j = Math.max(n1.getIndex(), n2.getIndex());
+        long key = (long) i * numNodes + j + 1;
+        int slot = (int) (mix(key) & slotMask);
+
+        long entry = cache.getOpaque(slot);
+        if (entry >>> valueBits == key) {
+            return (int) (entry & valueMask);
+        }
+
+        int distance = EuclideanDistances.euclideanDistance(n1, n2);
+        if (distance <= valueMask) {
+            cache.setOpaque(slot, (key << valueBits) | distance);
+        }
+        return distance;
+    }
+
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+}
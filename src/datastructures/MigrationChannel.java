@@ -0,0 +1,27 @@
+package datastructures;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * MigrationChannel: lock-free single-slot channel through which one search sends solutions to another.
+ * A pending solution is only replaced by a cheaper one; sent solutions must not be changed afterwards.
+ */
+public final class MigrationChannel {
+    private final AtomicReference<VRPSolution> pending = new AtomicReference<>();
+
+    public void send(VRPSolution solution) {
+        int costs = solution.getCosts(true);
+        while (true) {
+            VRPSolution current = pending.get();
+            if (current != null && current.getCosts(true) <= costs) return;
+            if (pending.compareAndSet(current, solution)) return;
+        }
+    }
+
+    /**
+     * The pending solution, or null if none has been sent since the last call.
+     */
+    public VRPSolution receive() {
+        return pending.getAndSet(null);
+    }
+}
@@ -3,13 +3,15 @@ package datastructures;
 
 public final class Node implements Comparable<Node> {
     public final int nodeId;
+    public final int index;   // dense position in the problem's node list, assigned at load time
     public final double xCoordinate;
     public final double yCoordinate;
     public final int demand;
     public final boolean depot;
 
-    public Node(int nodeId, double xCoordinate, double yCoordinate, int demand, boolean isDepot) {
+    public Node(int nodeId, int index, double xCoordinate, double yCoordinate, int demand, boolean isDepot) {
         this.nodeId = nodeId;
+        this.index = index;
         this.xCoordinate = xCoordinate;
         this.yCoordinate = yCoordinate;
         this.demand = demand;
@@ -17,6 +19,7 @@ public final class Node implements Comparable<Node> {
     }
 
     public int getNodeId() { return nodeId; }
+    public int getIndex() { return index; }
     public double getX() { return xCoordinate; }
     public double getY() { return yCoordinate; }
     public int getDemand() { return demand; }
@@ -0,0 +1,21 @@
+package datastructures;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+
+/**
+ * ParallelLoops: index loops which optionally run on the common fork-join pool.
+ */
+public final class ParallelLoops {
+
+    private ParallelLoops() {
+    }
+
+    /**
+     * Runs action(i) for i in [0, n), on the common fork-join pool if parallel.
+     */
+    public static void forEachIndex(int n, boolean parallel, IntConsumer action) {
+        IntStream indices = IntStream.range(0, n);
+        (parallel ? indices.parallel() : indices).forEach(action);
+    }
+}
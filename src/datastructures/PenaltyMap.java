@@ -0,0 +1,104 @@
+package datastructures;
+import java.util.Arrays;
+
+
+/**
+ * PenaltyMap: sparse map from an (undirected) edge to its penalty count.
+ *
+ * Primitive open addressing with linear probing, keyed by the two node indices packed into a long.
+ * Every slot remembers the epoch it was written in; slots of older epochs count as empty, so
+ * clear() only bumps the epoch.
+ */
+final class PenaltyMap {
+    private static final float MAX_LOAD = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int[] epochs;
+    private int epoch = 1;  // slots with epochs[slot] != epoch are empty
+    private int size = 0;
+
+    PenaltyMap(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.epochs = new int[capacity];
+    }
+
+    static long key(Node n1, Node n2) {
+        int i = n1.getIndex();
+        int j = n2.getIndex();
+        return i <= j ? ((long) i << 32) | j : ((long) j << 32) | i;
+    }
+
+    /**
+     * Penalty count of the edge, 0 if it has never been penalized (since the last clear).
+     */
+    int get(long key) {
+        if (size == 0) return 0;
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); epochs[slot] == epoch; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return values[slot];
+        }
+        return 0;
+    }
+
+    /**
+     * Increase the penalty count of the edge by one and return the new count.
+     */
+    int increment(long key) {
+        if (size + 1 > keys.length * MAX_LOAD) grow();
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (epochs[slot] == epoch) {
+            if (keys[slot] == key) return ++values[slot];
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = 1;
+        epochs[slot] = epoch;
+        size++;
+        return 1;
+    }
+
+    void clear() {
+        size = 0;
+        epoch++;
+        if (epoch == 0) {
+            // epoch counter wrapped around, make sure no old slot looks current
+            Arrays.fill(epochs, 0);
+            epoch = 1;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        int[] oldEpochs = epochs;
+        int oldEpoch = epoch;
+
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        epochs = new int[oldKeys.length * 2];
+        epoch = 1;
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldEpochs[i] == oldEpoch) {
+                int slot = slot(oldKeys[i], mask);
+                while (epochs[slot] == epoch) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                epochs[slot] = epoch;
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -1,19 +1,35 @@
 package datastructures;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.RandomAccess;
 
 
 public final class Route {
     private final int routeIndex;
     private final Node depot;
-    // Nodes include both starting and ending depot
-    List<Node> nodes; // package-private so VRPSolution can adjust as in Python
+    // Nodes include both starting and ending depot, stored in nodes[0 .. length)
+    private Node[] nodes;
+    private int length;
+    // node index -> position in its route; shared by all routes of a solution (depots are not stored)
+    private final int[] positionOf;
 
     private int size;   // number of customers (excl. depots)
     private int volume; // sum of demand for all nodes in the route (incl. depot which is usually 0)
 
+    // sum of edge costs without / with penalties, maintained by VRPSolution
+    int cost;
+    int penalizedCost;
+
+    // incremented by every change of the node sequence
+    private int version = 0;
+
     public Route(List<Node> nodes, int routeIndex) {
+        this(nodes, routeIndex, new int[maxIndex(nodes) + 1]);
+    }
+
+    Route(List<Node> nodes, int routeIndex, int[] positionOf) {
         if (nodes == null || nodes.size() < 2)
             throw new IllegalArgumentException("Route must contain at least depot-start and depot-end");
         if (!nodes.get(0).isDepot()) throw new IllegalArgumentException("First node of a route has to be a depot.");
@@ -23,67 +39,138 @@ public final class Route {
 
         this.routeIndex = routeIndex;
         this.depot = nodes.get(0);
-        this.nodes = new ArrayList<>(nodes);
-
-        this.size = this.nodes.size() - 2;
-        int vol = 0;
-        for (Node n : this.nodes) vol += n.getDemand();
-        this.volume = vol;
+        this.positionOf = positionOf;
+        this.nodes = new Node[0];
+        setNodes(nodes);
 
         validate();
     }
 
+    /**
+     * Copy of a route which registers its positions in the given table.
+     */
+    Route(Route other, int[] positionOf) {
+        this.routeIndex = other.routeIndex;
+        this.depot = other.depot;
+        this.nodes = Arrays.copyOf(other.nodes, other.length);
+        this.length = other.length;
+        this.positionOf = positionOf;
+        this.size = other.size;
+        this.volume = other.volume;
+        this.cost = other.cost;
+        this.penalizedCost = other.penalizedCost;
+        this.version = other.version;
+    }
+
+    private static int maxIndex(List<Node> nodes) {
+        int max = 0;
+        for (Node n : nodes) max = Math.max(max, n.getIndex());
+        return max;
+    }
+
     public int getRouteIndex() { return routeIndex; }
     public Node getDepot() { return depot; }
     public int getSize() { return size; }
     public int getVolume() { return volume; }
+    public int getCost() { return cost; }
+
+    /**
+     * Modification counter: two equal versions of the same route object have the same node sequence.
+     */
+    public int getVersion() { return version; }
+
+    /**
+     * Node at the given position (0 is the start depot, getSize() + 1 the return depot).
+     */
+    public Node getNode(int position) {
+        if (position < 0 || position >= length) throw new IndexOutOfBoundsException("Position " + position);
+        return nodes[position];
+    }
+
+    /**
+     * Position of a customer in this route (the start depot has position 0).
+     */
+    public int getPosition(Node node) {
+        if (node.isDepot()) return 0;
+        int position = positionOf[node.getIndex()];
+        if (position <= 0 || position >= length - 1 || nodes[position] != node)
+            throw new IllegalArgumentException("Customer " + node + " not found in the route.");
+        return position;
+    }
 
+    // Live, read-only views on the route. They reflect later changes of the route.
     public List<Node> getNodes() {
-        return Collections.unmodifiableList(nodes);
+        return new NodeView(0, 0);
     }
 
     public List<Node> getCustomers() {
-        if (nodes.size() <= 2) return Collections.emptyList();
-        return new ArrayList<>(nodes.subList(1, nodes.size() - 1));
+        if (length <= 2) return Collections.emptyList();
+        return new NodeView(1, 1);
     }
 
     public List<Node> getNodesExceptStart() {
-        if (nodes.size() <= 1) return Collections.emptyList();
-        return new ArrayList<>(nodes.subList(1, nodes.size()));
+        if (length <= 1) return Collections.emptyList();
+        return new NodeView(1, 0);
     }
 
     public List<Edge> getEdges() {
-        List<Edge> edges = new ArrayList<>(Math.max(0, nodes.size() - 1));
-        for (int i = 0; i < nodes.size() - 1; i++) {
-            edges.add(new Edge(nodes.get(i), nodes.get(i + 1)));
-        }
-        return edges;
+        return new EdgeView();
     }
 
     public void removeCustomer(Node node) {
         if (node == null) throw new IllegalArgumentException("Node cannot be null");
-        if (node.isDepot()) throw new IllegalArgumentException("A depot is removed from a route");
-        if (!nodes.contains(node)) throw new IllegalArgumentException("Node does not exist in route");
-        nodes.remove(node);
-        size -= 1;
-        volume -= node.getDemand();
+        removeCustomers(Collections.singletonList(node));
+    }
+
+    /**
+     * Remove several customers with a single compaction of the node array.
+     */
+    public void removeCustomers(List<Node> nodesToRemove) {
+        int firstPosition = length;
+        for (Node node : nodesToRemove) {
+            if (node.isDepot()) throw new IllegalArgumentException("A depot is removed from a route");
+            int position = positionOf[node.getIndex()];
+            if (position <= 0 || position >= length - 1 || nodes[position] != node)
+                throw new IllegalArgumentException("Node does not exist in route");
+            nodes[position] = null;
+            firstPosition = Math.min(firstPosition, position);
+        }
+
+        int write = firstPosition;
+        for (int read = firstPosition; read < length; read++) {
+            Node node = nodes[read];
+            if (node != null) {
+                nodes[write] = node;
+                if (!node.isDepot()) positionOf[node.getIndex()] = write;
+                write++;
+            }
+        }
+        Arrays.fill(nodes, write, length, null);
+        length = write;
+        version++;
+
+        for (Node node : nodesToRemove) {
+            size -= 1;
+            volume -= node.getDemand();
+        }
     }
 
     public void addCustomersAfter(List<Node> nodesToAdd, Node insertAfter) {
         if (insertAfter == null || nodesToAdd == null) throw new IllegalArgumentException();
-        int idx = nodes.indexOf(insertAfter);
-        if (idx < 0) throw new IllegalArgumentException("Customer " + insertAfter + " not found in the route.");
+        int idx = getPosition(insertAfter);
 
         // Validate inputs first to fail fast
         for (Node n : nodesToAdd) {
             if (n.isDepot()) throw new IllegalArgumentException("A depot is inserted into a route");
         }
 
-        List<Node> newNodes = new ArrayList<>(nodes.size() + nodesToAdd.size());
-        newNodes.addAll(nodes.subList(0, idx + 1));
-        newNodes.addAll(nodesToAdd);
-        newNodes.addAll(nodes.subList(idx + 1, nodes.size()));
-        nodes = newNodes;
+        int numAdded = nodesToAdd.size();
+        ensureCapacity(length + numAdded);
+        System.arraycopy(nodes, idx + 1, nodes, idx + 1 + numAdded, length - idx - 1);
+        for (int i = 0; i < numAdded; i++) nodes[idx + 1 + i] = nodesToAdd.get(i);
+        length += numAdded;
+        updatePositions(idx + 1, length - 1);
+        version++;
 
         for (Node n : nodesToAdd) {
             size += 1;
@@ -91,29 +178,65 @@ public final class Route {
         }
     }
 
+    /**
+     * Replace the node sequence (including both depots) of this route.
+     */
+    void setNodes(List<Node> newNodes) {
+        ensureCapacity(newNodes.size());
+        Arrays.fill(nodes, null);
+        length = 0;
+        size = 0;
+        volume = 0;
+        for (Node n : newNodes) {
+            nodes[length++] = n;
+            volume += n.getDemand();
+        }
+        size = length - 2;
+        updatePositions(1, length - 1);
+        version++;
+    }
+
     public void reverse() {
-        Collections.reverse(nodes);
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            Node tmp = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = tmp;
+        }
+        updatePositions(1, length - 1);
+        version++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (nodes.length < capacity) {
+            nodes = Arrays.copyOf(nodes, Math.max(capacity, nodes.length + (nodes.length >> 1)));
+        }
+    }
+
+    // refresh the position table for nodes[from .. to)
+    private void updatePositions(int from, int to) {
+        for (int i = from; i < to; i++) positionOf[nodes[i].getIndex()] = i;
     }
 
     public void validate() {
-        if (!nodes.get(0).isDepot()) throw new IllegalStateException("First node has to be a depot.");
-        if (!nodes.get(nodes.size() - 1).isDepot()) throw new IllegalStateException("Last node has to be a depot.");
-        if (!nodes.get(0).equals(nodes.get(nodes.size() - 1)))
+        if (!nodes[0].isDepot()) throw new IllegalStateException("First node has to be a depot.");
+        if (!nodes[length - 1].isDepot()) throw new IllegalStateException("Last node has to be a depot.");
+        if (!nodes[0].equals(nodes[length - 1]))
             throw new IllegalStateException("Start and return depot have to be the same.");
-        if (size != nodes.size() - 2) throw new IllegalStateException("Size mismatch");
+        if (size != length - 2) throw new IllegalStateException("Size mismatch");
         int vol = 0;
-        for (Node n : nodes) vol += n.getDemand();
+        for (int i = 0; i < length; i++) vol += nodes[i].getDemand();
         if (volume != vol) throw new IllegalStateException("Volume mismatch");
-        for (int i = 1; i < nodes.size() - 1; i++) {
-            if (nodes.get(i).isDepot()) throw new IllegalStateException("Depot found among customers");
+        for (int i = 1; i < length - 1; i++) {
+            if (nodes[i].isDepot()) throw new IllegalStateException("Depot found among customers");
+            if (positionOf[nodes[i].getIndex()] != i) throw new IllegalStateException("Position mismatch");
         }
     }
 
     public String print() {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < nodes.size(); i++) {
+        for (int i = 0; i < length; i++) {
             if (i > 0) sb.append('-');
-            sb.append(nodes.get(i).getNodeId());
+            sb.append(nodes[i].getNodeId());
         }
         return sb.toString();
     }
@@ -135,4 +258,39 @@ public final class Route {
         Route other = (Route) obj;
         return this.routeIndex == other.routeIndex;
     }
+
+    // nodes[skipStart .. length - skipEnd)
+    private final class NodeView extends AbstractList<Node> implements RandomAccess {
+        private final int skipStart;
+        private final int skipEnd;
+
+        NodeView(int skipStart, int skipEnd) {
+            this.skipStart = skipStart;
+            this.skipEnd = skipEnd;
+        }
+
+        @Override
+        public Node get(int i) {
+            if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("Index " + i);
+            return nodes[skipStart + i];
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, length - skipStart - skipEnd);
+        }
+    }
+
+    private final class EdgeView extends AbstractList<Edge> implements RandomAccess {
+        @Override
+        public Edge get(int i) {
+            if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("Index " + i);
+            return new Edge(nodes[i], nodes[i + 1]);
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, length - 1);
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package datastructures;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * SharedBestSolution: best solution found by several searches running on different threads.
+ *
+ * Searches offer snapshots of their solutions; a snapshot replaces the current one only if its
+ * (unpenalized) costs are lower. The holder is lock-free: the solution and its costs are swapped
+ * together by a compare-and-set, so readers always see a matching pair. Offered snapshots must not
+ * be changed afterwards.
+ */
+public final class SharedBestSolution {
+    private final AtomicReference<Entry> best = new AtomicReference<>();
+
+    private static final class Entry {
+        final VRPSolution solution;
+        final int costs;
+        final int searchIndex;
+
+        Entry(VRPSolution solution, int costs, int searchIndex) {
+            this.solution = solution;
+            this.costs = costs;
+            this.searchIndex = searchIndex;
+        }
+    }
+
+    /**
+     * Offer a snapshot found by the given search, returns true if it is the new best solution.
+     */
+    public boolean offer(VRPSolution solution, int searchIndex) {
+        Entry candidate = new Entry(solution, solution.getCosts(true), searchIndex);
+        while (true) {
+            Entry current = best.get();
+            if (current != null && current.costs <= candidate.costs) return false;
+            if (best.compareAndSet(current, candidate)) return true;
+        }
+    }
+
+    public VRPSolution getSolution() {
+        Entry current = best.get();
+        return current == null ? null : current.solution;
+    }
+
+    public int getCosts() {
+        Entry current = best.get();
+        return current == null ? Integer.MAX_VALUE : current.costs;
+    }
+
+    /**
+     * Index of the search which found the best solution, -1 if none has been offered yet.
+     */
+    public int getSearchIndex() {
+        Entry current = best.get();
+        return current == null ? -1 : current.searchIndex;
+    }
+}
@@ -0,0 +1,131 @@
+package datastructures;
+import java.util.*;
+
+
+/**
+ * SpatialGrid: uniform grid over the customer coordinates for k-nearest-neighbour queries.
+ *
+ * Customers are bucketed into square cells (about two customers per cell) stored in CSR layout.
+ * A query scans rings of cells around the query node until no unvisited cell can contain a
+ * customer with a rounded distance up to the k-th best found so far. Results are ordered by
+ * (rounded distance, node index), i.e. exactly as a stable sort of the node list by distance.
+ */
+final class SpatialGrid {
+    private final Node[] nodes;         // node index -> Node
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int numCellsX;
+    private final int numCellsY;
+    private final int[] cellStart;      // cell -> start in cellNodes (CSR)
+    private final int[] cellNodes;      // node indices of the customers, grouped by cell
+
+    SpatialGrid(List<Node> nodes) {
+        this.nodes = nodes.toArray(new Node[0]);
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        int numCustomers = 0;
+        for (Node node : nodes) {
+            if (!node.isDepot()) {
+                minX = Math.min(minX, node.getX());
+                minY = Math.min(minY, node.getY());
+                maxX = Math.max(maxX, node.getX());
+                maxY = Math.max(maxY, node.getY());
+                numCustomers++;
+            }
+        }
+        if (numCustomers == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        this.minX = minX;
+        this.minY = minY;
+
+        double width = maxX - minX;
+        double height = maxY - minY;
+        double size = Math.sqrt(Math.max(width * height, 1.0) * 2.0 / Math.max(numCustomers, 1));
+        size = Math.max(size, Math.max(width, height) / Math.max(numCustomers, 1));
+        this.cellSize = Math.max(size, 1e-9);
+        this.numCellsX = (int) Math.min(Math.max(1, Math.floor(width / cellSize) + 1), numCustomers + 1);
+        this.numCellsY = (int) Math.min(Math.max(1, Math.floor(height / cellSize) + 1), numCustomers + 1);
+
+        // counting sort of the customers into their cells
+        int[] cellOf = new int[this.nodes.length];
+        this.cellStart = new int[numCellsX * numCellsY + 1];
+        for (Node node : nodes) {
+            if (!node.isDepot()) {
+                cellOf[node.getIndex()] = cellX(node.getX()) * numCellsY + cellY(node.getY());
+                cellStart[cellOf[node.getIndex()] + 1]++;
+            }
+        }
+        for (int c = 0; c < numCellsX * numCellsY; c++) cellStart[c + 1] += cellStart[c];
+
+        this.cellNodes = new int[numCustomers];
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (Node node : nodes) {
+            if (!node.isDepot()) cellNodes[fill[cellOf[node.getIndex()]]++] = node.getIndex();
+        }
+    }
+
+    /**
+     * Node indices of the (at most) k customers nearest to the given node, excluding the node itself,
+     * ordered by (rounded distance, node index).
+     */
+    int[] nearestCustomers(Node node, int k) {
+        if (k <= 0) return new int[0];
+        int cx = cellX(node.getX());
+        int cy = cellY(node.getY());
+        int maxRing = Math.max(numCellsX, numCellsY);
+
+        long[] candidates = new long[Math.max(16, 2 * k)]; // (rounded distance << 32) | node index
+        int numCandidates = 0;
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int x = cx - ring; x <= cx + ring; x++) {
+                if (x < 0 || x >= numCellsX) continue;
+                boolean borderColumn = (x == cx - ring || x == cx + ring);
+                for (int y = cy - ring; y <= cy + ring; y += borderColumn ? 1 : 2 * ring) {
+                    if (y >= 0 && y < numCellsY) {
+                        int cell = x * numCellsY + y;
+                        for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                            int other = cellNodes[i];
+                            if (other == node.getIndex()) continue;
+                            if (numCandidates == candidates.length) {
+                                candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+                            }
+                            candidates[numCandidates++] = rankKey(node, nodes[other]);
+                        }
+                    }
+                    if (ring == 0) break;
+                }
+            }
+
+            if (numCandidates >= k) {
+                // unvisited cells are at least ring * cellSize away; stop once none of them can tie the k-th best
+                Arrays.sort(candidates, 0, numCandidates);
+                long kthDistance = candidates[k - 1] >>> 32;
+                if (ring * cellSize >= kthDistance + 0.5) break;
+            }
+        }
+        Arrays.sort(candidates, 0, numCandidates);
+
+        int[] nearest = new int[Math.min(k, numCandidates)];
+        for (int i = 0; i < nearest.length; i++) nearest[i] = (int) candidates[i];
+        return nearest;
+    }
+
+    /**
+     * Key by which the neighbours of a node are ordered: (rounded distance << 32) | index of the neighbour.
+     */
+    static long rankKey(Node node, Node other) {
+        return ((long) EuclideanDistances.euclideanDistance(node, other) << 32) | other.getIndex();
+    }
+
+    private int cellX(double x) {
+        return Math.min(numCellsX - 1, Math.max(0, (int) Math.floor((x - minX) / cellSize)));
+    }
+
+    private int cellY(double y) {
+        return Math.min(numCellsY - 1, Math.max(0, (int) Math.floor((y - minY) / cellSize)));
+    }
+}
@@ -21,6 +21,11 @@ public final class VRPProblem {
         this.capacity = capacity;
         this.bks = bks;
 
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i).getIndex() != i)
+                throw new IllegalArgumentException("Node " + nodes.get(i) + " has index " + nodes.get(i).getIndex() + " but is at position " + i);
+        }
+
         List<Node> cust = new ArrayList<>();
         Node dep = null;
         for (Node n : nodes) {
@@ -38,6 +43,7 @@ public final class VRPProblem {
     public List<Node> getNodes() { return new ArrayList<>(nodes); }
     public List<Node> getCustomers() { return new ArrayList<>(customers); }
     public Node getDepot() { return depot; }
+    public int getNumNodes() { return nodes.size(); }
     public int getCapacity() { return capacity; }
     public double getBks() { return bks; }
 }
@@ -4,41 +4,98 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Supplier;
 
 
 public class VRPSolution {
+    private static final int NONE = -1;
+
+    // validation levels (run parameter validation_level)
+    public static final int VALIDATION_OFF = 0;     // no validation during the search
+    public static final int VALIDATION_ROUTES = 1;  // validate the routes changed by a move
+    public static final int VALIDATION_FULL = 2;    // validate the entire solution after every move
+
     private int nextRouteIndex = 0;
     private List<Route> routes = new ArrayList<>();
+    private List<Route> routesByIndex = new ArrayList<>(); // routeIndex -> Route
     private VRPProblem problem;
+    private final CostEvaluator costEvaluator;
+
+    // cost ledger: sums of all route costs without / with penalties, updated by every change of the solution.
+    // The penalized sums are recomputed lazily once the evaluator's penalties have changed.
+    // Changes of different routes may run concurrently: the route costs are only written by the thread
+    // changing that route and the totals are updated under the solution's lock.
+    private int totalCost = 0;
+    private int totalPenalizedCost = 0;
+    private long penaltyVersion;
 
     private Map<String, Double> solutionStats = new HashMap<>();
 
-    // nodeId -> prev/next Node or owning Route
-    private  Map<Integer, Node> prev = new HashMap<>();
-    private  Map<Integer, Node> next = new HashMap<>();
-    private  Map<Integer, Route> routeOf = new HashMap<>();
+    // state of the local search belonging to this solution object (e.g. move caches), not copied
+    private final Map<String, Object> searchCaches = new HashMap<>();
 
-    public VRPSolution(VRPProblem problem) {
+    // node index -> node index of prev/next node, or routeIndex of the owning route (NONE if unset).
+    // Depots are shared by all routes, so their links are not stored.
+    private final Node[] nodes; // node index -> Node, shared between copies
+    private final int[] prev;
+    private final int[] next;
+    private final int[] routeOf;
+    private final int[] positionOf; // node index -> position in its route, maintained by the routes
+
+    public VRPSolution(VRPProblem problem, CostEvaluator costEvaluator) {
         this.problem = Objects.requireNonNull(problem, "problem");
+        this.costEvaluator = Objects.requireNonNull(costEvaluator, "costEvaluator");
+        this.penaltyVersion = costEvaluator.getPenaltyVersion();
+
+        this.nodes = problem.getNodes().toArray(new Node[0]);
+        this.prev = new int[nodes.length];
+        this.next = new int[nodes.length];
+        this.routeOf = new int[nodes.length];
+        this.positionOf = new int[nodes.length];
+        Arrays.fill(prev, NONE);
+        Arrays.fill(next, NONE);
+        Arrays.fill(routeOf, NONE);
+    }
 
-        int n = Math.max(16, problem.getNodes().size() * 2);
+    private VRPSolution(VRPSolution other, CostEvaluator costEvaluator) {
+        this.problem = other.problem;
+        this.costEvaluator = costEvaluator;
+        this.totalCost = other.totalCost;
+        this.totalPenalizedCost = other.totalPenalizedCost;
+        // with another evaluator, the penalized costs are recomputed on first use
+        this.penaltyVersion = (costEvaluator == other.costEvaluator) ? other.penaltyVersion : NONE;
+        this.nodes = other.nodes;
+        this.prev = other.prev.clone();
+        this.next = other.next.clone();
+        this.routeOf = other.routeOf.clone();
+        this.positionOf = other.positionOf.clone();
+        this.nextRouteIndex = other.nextRouteIndex;
+
+        // routes are mutable, so each copy needs its own
+        for (int i = 0; i < other.routesByIndex.size(); i++) routesByIndex.add(null);
+        for (Route r : other.routes) {
+            Route routeCopy = new Route(r, positionOf);
+            routes.add(routeCopy);
+            routesByIndex.set(routeCopy.getRouteIndex(), routeCopy);
+        }
+    }
 
-        // Initialize maps with initial capacity
-        this.prev = new HashMap<>(n);
-        this.next = new HashMap<>(n);
-        this.routeOf = new HashMap<>(n);
+    public Node prev(Node node) { return nodeAt(prev[node.getIndex()]); }
+    public Node next(Node node) { return nodeAt(next[node.getIndex()]); }
+    public Route routeOf(Node node) {
+        int routeIndex = routeOf[node.getIndex()];
+        return routeIndex == NONE ? null : routesByIndex.get(routeIndex);
+    }
 
-        for (Node c : problem.getCustomers()) {
-            prev.put(c.getNodeId(), null);
-            next.put(c.getNodeId(), null);
-            routeOf.put(c.getNodeId(), null);
-        }
-        // depots will be added lazily when we link edges (like Python dicts)   
+    private Node nodeAt(int index) {
+        return index == NONE ? null : nodes[index];
     }
 
-    public Node prev(Node node) { return prev.get(node.getNodeId()); }
-    public Node next(Node node) { return next.get(node.getNodeId()); }
-    public Route routeOf(Node node) { return routeOf.get(node.getNodeId()); }
+    // sets next(from) = to and prev(to) = from, skipping the link slots of depots
+    private void link(Node from, Node to) {
+        if (!from.isDepot()) next[from.getIndex()] = to.getIndex();
+        if (!to.isDepot()) prev[to.getIndex()] = from.getIndex();
+    }
 
     public Node neighbour(Node node, int direction) {
         return direction == 0 ? prev(node) : next(node);
@@ -47,6 +104,89 @@ public class VRPSolution {
     public List<Route> getRoutes() { return routes; }
     public VRPProblem getProblem() { return problem; }
 
+    /**
+     * Total costs of the solution, kept up to date incrementally.
+     * Penalties are only included if requested and penalization is enabled in the evaluator
+     * (same semantics as CostEvaluator.getSolutionCosts).
+     */
+    public int getCosts(boolean ignorePenalties) {
+        if (ignorePenalties || !costEvaluator.isPenalizationEnabled()) return totalCost;
+        refreshPenalizedCosts();
+        return totalPenalizedCost;
+    }
+
+    public int getRouteCosts(Route route, boolean ignorePenalties) {
+        if (ignorePenalties || !costEvaluator.isPenalizationEnabled()) return route.cost;
+        refreshPenalizedCosts();
+        return route.penalizedCost;
+    }
+
+    private synchronized void refreshPenalizedCosts() {
+        if (penaltyVersion == costEvaluator.getPenaltyVersion()) return;
+        penaltyVersion = costEvaluator.getPenaltyVersion();
+        totalPenalizedCost = 0;
+        for (Route r : routes) {
+            r.penalizedCost = 0;
+            for (int i = 0; i < r.getSize() + 1; i++) {
+                r.penalizedCost += costEvaluator.getPenalizedDistance(r.getNode(i), r.getNode(i + 1));
+            }
+            totalPenalizedCost += r.penalizedCost;
+        }
+    }
+
+    // changes the costs of the route only, the totals are updated once per change by addToTotals
+    private void addEdgeCosts(Route route, Node n1, Node n2, int sign) {
+        route.cost += sign * costEvaluator.getBaseDistance(n1, n2);
+        route.penalizedCost += sign * costEvaluator.getPenalizedDistance(n1, n2);
+    }
+
+    private synchronized void addToTotals(int cost, int penalizedCost) {
+        totalCost += cost;
+        totalPenalizedCost += penalizedCost;
+    }
+
+    private void setRouteCosts(Route route) {
+        int oldCost = route.cost;
+        int oldPenalizedCost = route.penalizedCost;
+        route.cost = 0;
+        route.penalizedCost = 0;
+        for (int i = 0; i < route.getSize() + 1; i++) {
+            addEdgeCosts(route, route.getNode(i), route.getNode(i + 1), 1);
+        }
+        addToTotals(route.cost - oldCost, route.penalizedCost - oldPenalizedCost);
+    }
+
+    /**
+     * Validate according to the given level, changedRoutes are the routes touched since the last validation.
+     */
+    public void validate(int validationLevel, Collection<Route> changedRoutes) {
+        if (validationLevel >= VALIDATION_FULL) {
+            validate();
+        } else if (validationLevel == VALIDATION_ROUTES) {
+            validateRoutes(changedRoutes);
+        }
+    }
+
+    /**
+     * Validate only the given routes: structure, capacity, ownership and linking of their nodes.
+     */
+    public void validateRoutes(Collection<Route> routesToCheck) {
+        for (Route r : routesToCheck) {
+            r.validate();
+            if (r.getVolume() > problem.getCapacity()) {
+                throw new IllegalStateException("Capacity violation");
+            }
+            for (int i = 1; i <= r.getSize(); i++) {
+                Node node = r.getNode(i);
+                if (routeOf(node) != r) throw new IllegalStateException("Route ownership mismatch");
+                if (prev(node) != r.getNode(i - 1))
+                    throw new IllegalStateException("Linking invariant (prev(node) == predecessor in route) failed");
+                if (next(node) != r.getNode(i + 1))
+                    throw new IllegalStateException("Linking invariant (next(node) == successor in route) failed");
+            }
+        }
+    }
+
     public void validate() {
         // Validate routes and capacity + ownership
         for (Route r : routes) r.validate();
@@ -55,7 +195,7 @@ public class VRPSolution {
                 throw new IllegalStateException("Capacity violation");
             }
             for (Node node : r.getCustomers()) {
-                Route owner = routeOf.get(node.getNodeId());
+                Route owner = routeOf(node);
                 if (owner != r) throw new IllegalStateException("Route ownership mismatch");
             }
         }
@@ -63,7 +203,7 @@ public class VRPSolution {
         // check that nodes are linked correctly
         for (Route r : routes) {
             if (r.getSize() > 0) {
-                List<Node> rs = r.nodes; // includes depots
+                List<Node> rs = r.getNodes(); // includes depots
                 if (prev(rs.get(1)) != r.getDepot())
                     throw new IllegalStateException("Prev of first customer must be depot");
                 if (next(rs.get(rs.size() - 2)) != r.getDepot())
@@ -71,7 +211,7 @@ public class VRPSolution {
             }
         }
 
-        for (Node node : problem.getNodes()) {
+        for (Node node : nodes) {
             if (!node.isDepot()) {
                 Node p = prev(node);
                 if (p != null && !p.isDepot()) {
@@ -95,11 +235,19 @@ public class VRPSolution {
     }
 
     public VRPSolution copy() {
-        VRPSolution copy = new VRPSolution(problem);
-        for (Route r : routes) {
-            copy.addRoute(r.getCustomers());
-        }
-        return copy;
+        return new VRPSolution(this, costEvaluator);
+    }
+
+    /**
+     * Copy whose costs are evaluated by another evaluator of the same instance, e.g. the one of another search.
+     */
+    public VRPSolution copy(CostEvaluator costEvaluator) {
+        return new VRPSolution(this, costEvaluator);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getSearchCache(String name, Supplier<T> factory) {
+        return (T) searchCaches.computeIfAbsent(name, k -> factory.get());
     }
 
     public void toFile(String pathToFile) throws IOException {
@@ -121,26 +269,37 @@ public class VRPSolution {
 
         Node prevLeftNeighbor;
         Node prevRightNeighbor;
+        Node lastInRoute;
 
         if (nodesToBeRemoved.size() > 1 &&
             !Objects.equals(next(nodesToBeRemoved.get(0)), nodesToBeRemoved.get(1))) {
-            prevLeftNeighbor = prev.get(nodesToBeRemoved.get(nodesToBeRemoved.size() - 1).getNodeId());
-            prevRightNeighbor = next.get(nodesToBeRemoved.get(0).getNodeId());
+            prevLeftNeighbor = prev(nodesToBeRemoved.get(nodesToBeRemoved.size() - 1));
+            prevRightNeighbor = next(nodesToBeRemoved.get(0));
+            lastInRoute = nodesToBeRemoved.get(0);
         } else {
-            prevLeftNeighbor = prev.get(nodesToBeRemoved.get(0).getNodeId());
-            prevRightNeighbor = next.get(nodesToBeRemoved.get(nodesToBeRemoved.size() - 1).getNodeId());
+            prevLeftNeighbor = prev(nodesToBeRemoved.get(0));
+            prevRightNeighbor = next(nodesToBeRemoved.get(nodesToBeRemoved.size() - 1));
+            lastInRoute = nodesToBeRemoved.get(nodesToBeRemoved.size() - 1);
         }
 
+        // costs: the edge into every removed node plus the one leaving the segment are replaced by one edge
+        int oldCost = route.cost;
+        int oldPenalizedCost = route.penalizedCost;
+        for (Node n : nodesToBeRemoved) {
+            addEdgeCosts(route, prev(n), n, -1);
+        }
+        addEdgeCosts(route, lastInRoute, prevRightNeighbor, -1);
+        addEdgeCosts(route, prevLeftNeighbor, prevRightNeighbor, 1);
+        addToTotals(route.cost - oldCost, route.penalizedCost - oldPenalizedCost);
+
         // Link neighbors around the removed segment
-        if (prevLeftNeighbor != null)
-            next.put(prevLeftNeighbor.getNodeId(), prevRightNeighbor);
-        if (prevRightNeighbor != null)
-            prev.put(prevRightNeighbor.getNodeId(), prevLeftNeighbor);
+        if (prevLeftNeighbor != null && prevRightNeighbor != null)
+            link(prevLeftNeighbor, prevRightNeighbor);
 
         for (Node n : nodesToBeRemoved) {
-            routeOf.put(n.getNodeId(), null);
-            route.removeCustomer(n);
+            routeOf[n.getIndex()] = NONE;
         }
+        route.removeCustomers(nodesToBeRemoved);
     }
 
     public void addRoute(List<Node> nodes) {
@@ -150,23 +309,17 @@ public class VRPSolution {
         routeNodes.addAll(nodes);
         routeNodes.add(depot);
 
-        Route newRoute = new Route(routeNodes, nextRouteIndex++);
+        Route newRoute = new Route(routeNodes, nextRouteIndex++, positionOf);
         routes.add(newRoute);
+        routesByIndex.add(newRoute);
+        setRouteCosts(newRoute);
 
         for (int i = 0; i < routeNodes.size(); i++) {
             Node node = routeNodes.get(i);
             if (!node.isDepot()) {
-                Node p = routeNodes.get(i - 1);
-                Node n = routeNodes.get(i + 1);
-                prev.put(node.getNodeId(), p);
-                next.put(node.getNodeId(), n);
-                routeOf.put(node.getNodeId(), newRoute);
-
-                // ensure depot keys exist when used as neighbors
-                prev.putIfAbsent(p.getNodeId(), null);
-                next.putIfAbsent(p.getNodeId(), null);
-                prev.putIfAbsent(n.getNodeId(), null);
-                next.putIfAbsent(n.getNodeId(), null);
+                link(routeNodes.get(i - 1), node);
+                link(node, routeNodes.get(i + 1));
+                routeOf[node.getIndex()] = newRoute.getRouteIndex();
             }
         }
     }
@@ -181,30 +334,38 @@ public class VRPSolution {
         for (int i = 0; i < nodesToInsert.size(); i++) {
             Node node = nodesToInsert.get(i);
             if (i + 1 < nodesToInsert.size()) {
-                Node nextNode = nodesToInsert.get(i + 1);
-                next.put(node.getNodeId(), nextNode);
-                prev.put(nextNode.getNodeId(), node);
+                link(node, nodesToInsert.get(i + 1));
             }
-            routeOf.put(node.getNodeId(), route);
+            routeOf[node.getIndex()] = route.getRouteIndex();
         }
 
         Node oldNextNode;
         if (moveAfterNode.isDepot()) {
-            oldNextNode = route.nodes.get(1);
+            oldNextNode = route.getNode(1);
         } else {
             oldNextNode = next(moveAfterNode);
         }
 
-        next.put(moveAfterNode.getNodeId(), nodesToInsert.get(0));
-        prev.put(nodesToInsert.get(0).getNodeId(), moveAfterNode);
+        link(moveAfterNode, nodesToInsert.get(0));
+        link(nodesToInsert.get(nodesToInsert.size() - 1), oldNextNode);
 
-        Node tail = nodesToInsert.get(nodesToInsert.size() - 1);
-        next.put(tail.getNodeId(), oldNextNode);
-        prev.put(oldNextNode.getNodeId(), tail);
+        int oldCost = route.cost;
+        int oldPenalizedCost = route.penalizedCost;
+        addEdgeCosts(route, moveAfterNode, oldNextNode, -1);
+        addEdgeCosts(route, moveAfterNode, nodesToInsert.get(0), 1);
+        for (int i = 0; i + 1 < nodesToInsert.size(); i++) {
+            addEdgeCosts(route, nodesToInsert.get(i), nodesToInsert.get(i + 1), 1);
+        }
+        addEdgeCosts(route, nodesToInsert.get(nodesToInsert.size() - 1), oldNextNode, 1);
+        addToTotals(route.cost - oldCost, route.penalizedCost - oldPenalizedCost);
 
         route.addCustomersAfter(nodesToInsert, moveAfterNode);
     }
 
+    /**
+     * Replace the node order of a route. Only the links of the route's own customers are written,
+     * so different routes may be rearranged concurrently.
+     */
     public void rearrangeRoute(Route route, List<Node> nodeOrder) {
         if (!nodeOrder.get(0).isDepot()) throw new IllegalArgumentException("first node has to be a depot");
         if (!nodeOrder.get(nodeOrder.size() - 1).isDepot()) throw new IllegalArgumentException("last node has to be a depot");
@@ -212,27 +373,29 @@ public class VRPSolution {
         for (int i = 0; i < nodeOrder.size(); i++) {
             Node node = nodeOrder.get(i);
             if (!node.isDepot()) {
-                prev.put(node.getNodeId(), nodeOrder.get(i - 1));
-                next.put(node.getNodeId(), nodeOrder.get(i + 1));
+                link(nodeOrder.get(i - 1), node);
+                link(node, nodeOrder.get(i + 1));
             }
         }
-        route.nodes = new ArrayList<>(nodeOrder);
-        validate();
+        route.setNodes(nodeOrder);
+        setRouteCosts(route);
     }
 
-    public void addStat(String key, double value) {
+    // the stats may be updated by concurrent searches on the same solution
+    public synchronized void addStat(String key, double value) {
         solutionStats.put(key, solutionStats.getOrDefault(key, 0.0) + value);
     }
 
-    public void setStats(Map<String, Double> newStats) {
+    public synchronized void setStats(Map<String, Double> newStats) {
         solutionStats = new HashMap<>(newStats);
     }
 
-    public void setStat(String key, double value) {
+    public synchronized void setStat(String key, double value) {
         solutionStats.put(key, value);
     }
 
-    public Map<String, Double> getAllStats() {
-        return solutionStats;
+    // a copy, the stats may be changed concurrently while it is read
+    public synchronized Map<String, Double> getAllStats() {
+        return new HashMap<>(solutionStats);
     }
 }
@@ -0,0 +1,104 @@
+package localsearch;
+import datastructures.CostEvaluator;
+import datastructures.Node;
+import datastructures.Route;
+import datastructures.VRPSolution;
+import java.util.*;
+
+
+/**
+ * ActiveNodes: heuristic don't-look bits of the customers for the inter-route local search, kept per solution.
+ * All changes of the solution have to be reported, otherwise the recorded routes are out of date.
+ */
+final class ActiveNodes {
+    private final Node[] nodes;         // node index -> Node
+    private final boolean[] active;     // node index -> don't-look bit cleared
+    private final int[] queue;          // node indices of the active customers
+    private int size;
+
+    private final int[] recordedPrev;   // node index -> node index of the predecessor when last inspected
+    private final int[] recordedNext;
+    private int[] recordedVolume;       // route index -> load when last inspected
+
+    ActiveNodes(VRPSolution solution) {
+        this.nodes = solution.getProblem().getNodes().toArray(new Node[0]);
+        this.active = new boolean[nodes.length];
+        this.queue = new int[nodes.length];
+        this.recordedPrev = new int[nodes.length];
+        this.recordedNext = new int[nodes.length];
+        this.recordedVolume = new int[solution.getRoutes().size()];
+        for (Route route : solution.getRoutes()) {
+            record(solution, route);
+        }
+    }
+
+    /**
+     * Activate all customers of the routes, e.g. of the routes changed by a perturbation.
+     */
+    void activateRoutes(VRPSolution solution, Collection<Route> routes) {
+        for (Route route : routes) {
+            for (Node customer : route.getCustomers()) {
+                activate(customer);
+            }
+            record(solution, route);
+        }
+    }
+
+    /**
+     * Activate the customers of the routes whose incident edges or route load changed, and their neighbors,
+     * which may have a new move into the changed route.
+     */
+    void activateChanged(VRPSolution solution, CostEvaluator costEvaluator, Collection<Route> routes) {
+        for (Route route : routes) {
+            boolean loadChanged = recordedVolume(route) != route.getVolume();
+            for (Node customer : route.getCustomers()) {
+                int i = customer.getIndex();
+                if (loadChanged
+                        || recordedPrev[i] != solution.prev(customer).getIndex()
+                        || recordedNext[i] != solution.next(customer).getIndex()) {
+                    activate(customer);
+                    for (Node neighbor : costEvaluator.getNeighborhood(customer)) {
+                        activate(neighbor);
+                    }
+                }
+            }
+            record(solution, route);
+        }
+    }
+
+    /**
+     * The active customers in node order; their don't-look bits are set again.
+     */
+    List<Node> drain() {
+        Arrays.sort(queue, 0, size);
+        List<Node> activeNodes = new ArrayList<>(size);
+        for (int k = 0; k < size; k++) {
+            activeNodes.add(nodes[queue[k]]);
+            active[queue[k]] = false;
+        }
+        size = 0;
+        return activeNodes;
+    }
+
+    private void activate(Node customer) {
+        if (!active[customer.getIndex()]) {
+            active[customer.getIndex()] = true;
+            queue[size++] = customer.getIndex();
+        }
+    }
+
+    private int recordedVolume(Route route) {
+        return route.getRouteIndex() < recordedVolume.length ? recordedVolume[route.getRouteIndex()] : -1;
+    }
+
+    private void record(VRPSolution solution, Route route) {
+        if (route.getRouteIndex() >= recordedVolume.length) {
+            recordedVolume = Arrays.copyOf(recordedVolume, Math.max(route.getRouteIndex() + 1, 2 * recordedVolume.length));
+        }
+        recordedVolume[route.getRouteIndex()] = route.getVolume();
+        for (Node customer : route.getCustomers()) {
+            recordedPrev[customer.getIndex()] = solution.prev(customer).getIndex();
+            recordedNext[customer.getIndex()] = solution.next(customer).getIndex();
+        }
+    }
+}
@@ -11,9 +11,13 @@ public class CrossExchangeOperator {
     private static final Logger logger = Logger.getLogger(CrossExchangeOperator.class.getName());
 
     // === Inner class representing the move ===
+    // Both segments are described by their end nodes and directions, they are materialized on execution.
     public static class CrossExchange implements LocalSearchMove {
-        private final List<Node> segment1;
-        private final List<Node> segment2;
+        private final Node segment1End;
+        private final Node segment2Start;
+        private final Node segment2End;
+        private final int segment1Direction;
+        private final int segment2Direction;
         private final Node segment1InsertAfter;
         private final Node segment2InsertAfter;
         private final Route route1;
@@ -21,16 +25,22 @@ public class CrossExchangeOperator {
         private final double improvement;
         private final Node startNode;
 
-        public CrossExchange(List<Node> segment1,
-                             List<Node> segment2,
+        public CrossExchange(Node startNode,
+                             Node segment1End,
+                             int segment1Direction,
+                             Node segment2Start,
+                             Node segment2End,
+                             int segment2Direction,
                              Node segment1InsertAfter,
                              Node segment2InsertAfter,
                              Route route1,
                              Route route2,
-                             double improvement,
-                             Node startNode) {
-            this.segment1 = segment1;
-            this.segment2 = segment2;
+                             double improvement) {
+            this.segment1End = segment1End;
+            this.segment1Direction = segment1Direction;
+            this.segment2Start = segment2Start;
+            this.segment2End = segment2End;
+            this.segment2Direction = segment2Direction;
             this.segment1InsertAfter = segment1InsertAfter;
             this.segment2InsertAfter = segment2InsertAfter;
             this.route1 = route1;
@@ -56,7 +66,12 @@ public class CrossExchangeOperator {
 
         @Override
         public void execute(VRPSolution solution) {
-            logger.fine("Executing cross-exchange with segments of sizes "
+            // segment 1 is inserted reversed if segment 2 extends backwards and vice versa
+            List<Node> segment1 = SegmentMoveOperator.getSegment(
+                    solution, startNode, segment1End, segment1Direction, segment2Direction == 0);
+            List<Node> segment2 = SegmentMoveOperator.getSegment(
+                    solution, segment2Start, segment2End, segment2Direction, segment1Direction == 0);
+            logger.fine(() -> "Executing cross-exchange with segments of sizes "
                     + segment1.size() + " and " + segment2.size()
                     + " with improvement of " + (int) improvement);
 
@@ -75,15 +90,15 @@ public class CrossExchangeOperator {
 
     // === Search methods ===
 
-    public static List<CrossExchange> searchCrossExchangesFrom(
+    public static void searchCrossExchangesFrom(
             VRPSolution solution,
             CostEvaluator costEvaluator,
             Node startNode,
             int[] segment1Directions,
-            int[] segment2Directions) {
+            int[] segment2Directions,
+            MoveSelector<CrossExchange> candidateMoves) {
 
         Route route1 = solution.routeOf(startNode);
-        List<CrossExchange> candidateMoves = new ArrayList<>();
 
         for (int segment1Direction : segment1Directions) {
             for (int segment2Direction : segment2Directions) {
@@ -108,14 +123,11 @@ public class CrossExchangeOperator {
 
                         if (improvementFirstCross > 0) {
                             Node segment1End = startNode;
-                            List<Node> segment1List = new ArrayList<>();
-                            segment1List.add(segment1End);
+                            int segment1Length = 1;
                             int segment1Volume = segment1End.demand;
 
-                            while (!segment1End.isDepot() && segment1List.size() < 40) {
+                            while (!segment1End.isDepot() && segment1Length < 40) {
                                 Node segment2End = segment2Start;
-                                List<Node> segment2List = new ArrayList<>();
-                                segment2List.add(segment2End);
                                 int segment2Volume = segment2End.demand;
 
                                 while (!segment2End.isDepot()
@@ -142,39 +154,30 @@ public class CrossExchangeOperator {
                                                     ? route1SegmentConnectionStart
                                                     : route1SegmentConnectionEnd;
 
-                                            candidateMoves.add(new CrossExchange(
-                                                    new ArrayList<>(segment1List),
-                                                    new ArrayList<>(segment2List),
+                                            candidateMoves.offer(MoveSelector.routePairKey(route1, route2), new CrossExchange(
+                                                    startNode,
+                                                    segment1End,
+                                                    segment1Direction,
+                                                    segment2Start,
+                                                    segment2End,
+                                                    segment2Direction,
                                                     seg1InsertAfter,
                                                     seg2InsertAfter,
                                                     route1,
                                                     route2,
-                                                    improvement,
-                                                    startNode
+                                                    improvement
                                             ));
                                         }
                                     }
 
                                     // Extend segment2
                                     segment2End = solution.neighbour(segment2End, segment2Direction);
-
-                                    if ((segment2Direction == 1 && segment1Direction == 0)
-                                            || (segment1Direction + segment2Direction == 0)) {
-                                        segment2List.add(0, segment2End);
-                                    } else {
-                                        segment2List.add(segment2End);
-                                    }
                                     segment2Volume += segment2End.demand;
                                 }
 
                                 // Extend segment1
                                 segment1End = solution.neighbour(segment1End, segment1Direction);
-                                if ((segment1Direction == 1 && segment2Direction == 0)
-                                        || (segment1Direction + segment2Direction == 0)) {
-                                    segment1List.add(0, segment1End);
-                                } else {
-                                    segment1List.add(segment1End);
-                                }
+                                segment1Length++;
                                 segment1Volume += segment1End.demand;
                             }
                         }
@@ -182,26 +185,52 @@ public class CrossExchangeOperator {
                 }
             }
         }
-
-        return candidateMoves;
     }
 
     public static List<CrossExchange> searchCrossExchanges(
             VRPSolution solution,
             CostEvaluator costEvaluator,
             List<Node> startNodes) {
+        return searchCrossExchanges(solution, costEvaluator, startNodes, false, false);
+    }
 
-        List<CrossExchange> candidateMoves = new ArrayList<>();
-        int[] defaultDirs = {0, 1};
+    // reuses the candidates of start nodes whose routes did not change if useMoveCache is set.
+    // With parallel set, every (start node, segment 1 direction, segment 2 direction) is a task of its own,
+    // which balances the very different search costs of the start nodes.
+    public static List<CrossExchange> searchCrossExchanges(
+            VRPSolution solution,
+            CostEvaluator costEvaluator,
+            List<Node> startNodes,
+            boolean useMoveCache,
+            boolean parallel) {
+
+        MoveCache<CrossExchange> cache = useMoveCache
+                ? solution.getSearchCache("cross_exchange", MoveCache::new)
+                : null;
+        List<MoveSelector<CrossExchange>> cached = new ArrayList<>(startNodes.size());
+        List<Integer> searchedNodes = new ArrayList<>();
+        for (int i = 0; i < startNodes.size(); i++) {
+            cached.add(cache != null ? cache.get(startNodes.get(i), solution, costEvaluator) : null);
+            if (cached.get(i) == null) searchedNodes.add(i);
+        }
 
-        for (Node startNode : startNodes) {
-            candidateMoves.addAll(
-                    searchCrossExchangesFrom(solution, costEvaluator, startNode, defaultDirs, defaultDirs)
-            );
+        // four tasks per start node, in the loop order of searchCrossExchangesFrom
+        List<MoveSelector<CrossExchange>> movesPerTask = MoveSelector.searchEach(
+                4 * searchedNodes.size(), parallel, task -> {
+                    MoveSelector<CrossExchange> taskMoves = new MoveSelector<>();
+                    searchCrossExchangesFrom(solution, costEvaluator, startNodes.get(searchedNodes.get(task / 4)),
+                            new int[]{(task % 4) / 2}, new int[]{task % 2}, taskMoves);
+                    return taskMoves;
+                });
+
+        List<MoveSelector<CrossExchange>> movesPerStartNode = new ArrayList<>(cached);
+        for (int k = 0; k < searchedNodes.size(); k++) {
+            int i = searchedNodes.get(k);
+            movesPerStartNode.set(i, MoveSelector.merge(movesPerTask.subList(4 * k, 4 * k + 4)));
+            if (cache != null) cache.put(startNodes.get(i), solution, costEvaluator, movesPerStartNode.get(i));
         }
 
-        // Sort by improvement descending
-        candidateMoves.sort(Comparator.comparingDouble(CrossExchange::getImprovement).reversed());
-        return candidateMoves;
+        // Best move per route pair, sorted by improvement descending
+        return MoveSelector.merge(movesPerStartNode).getSortedMoves();
     }
 }
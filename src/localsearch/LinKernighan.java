@@ -1,6 +1,5 @@
 package localsearch;
 
-import datastructures.Edge;
 import datastructures.Node;
 import datastructures.Route;
 import datastructures.VRPSolution;
@@ -73,251 +72,508 @@ public class LinKernighan {
 
         @Override
         public void execute(VRPSolution solution) {
-            logger.fine("Executing " + removedEdges.size() + "-opt move with improvement " + (int) improvement);
+            logger.fine(() -> "Executing " + removedEdges.size() + "-opt move with improvement " + (int) improvement);
 
-            Map<Node, List<Node>> graph = new HashMap<>();
-            List<Node> routeNodes = route.getNodesExceptStart();
+            // neighbours after the move of the nodes touched by a removed or added edge
+            Map<Node, List<Node>> touched = new HashMap<>();
+            for (LKEdge r : removedEdges) {
+                newNeighbours(touched, r.node1).remove(r.node2);
+                newNeighbours(touched, r.node2).remove(r.node1);
+            }
+            for (LKEdge a : newEdges) {
+                newNeighbours(touched, a.node1).add(a.node2);
+                newNeighbours(touched, a.node2).add(a.node1);
+            }
 
-            for (int i = 0; i < routeNodes.size(); i++) {
-                Node node = routeNodes.get(i);
-                List<Node> newNeighbors;
+            // walk the new tour from the depot, stepping along the old route between touched nodes
+            Node depot = route.getDepot();
+            List<Node> newRoute = new ArrayList<>(route.getSize() + 2);
+            newRoute.add(depot);
+            Node previous = depot;
+            Node current = newNeighbours(touched, depot).get(1);
+            while (!current.isDepot()) {
+                if (newRoute.size() > route.getSize()) throw new IllegalStateException("Move does not give a single tour");
+                newRoute.add(current);
+
+                Node next;
+                List<Node> neighbours = touched.get(current);
+                if (neighbours != null) {
+                    next = neighbours.get(0).equals(previous) ? neighbours.get(1) : neighbours.get(0);
+                } else {
+                    int position = route.getPosition(current);
+                    next = route.getNode(position - 1).equals(previous)
+                            ? route.getNode(position + 1)
+                            : route.getNode(position - 1);
+                }
+                previous = current;
+                current = next;
+            }
+            if (newRoute.size() != route.getSize() + 1) throw new IllegalStateException("Move does not give a single tour");
+            newRoute.add(depot);
+
+            solution.rearrangeRoute(route, newRoute);
+        }
 
+        // neighbours of a node in the current route; the depot lists the last customer first
+        private List<Node> newNeighbours(Map<Node, List<Node>> touched, Node node) {
+            List<Node> neighbours = touched.get(node);
+            if (neighbours == null) {
+                neighbours = new ArrayList<>(4);
                 if (node.isDepot()) {
-                    newNeighbors = new ArrayList<>(Arrays.asList(
-                            route.getCustomers().get(route.getCustomers().size() - 1),
-                            route.getCustomers().get(0)
-                    ));
+                    neighbours.add(route.getNode(route.getSize()));
+                    neighbours.add(route.getNode(1));
                 } else {
-                    Node left_neighbour = solution.neighbour(node, 0);
-                    Node right_neighbour = solution.neighbour(node, 1);
-                    newNeighbors = new ArrayList<>(Arrays.asList(
-                        left_neighbour, right_neighbour
-                    ));
+                    int position = route.getPosition(node);
+                    neighbours.add(route.getNode(position - 1));
+                    neighbours.add(route.getNode(position + 1));
                 }
+                touched.put(node, neighbours);
+            }
+            return neighbours;
+        }
 
-                for (LKEdge r : removedEdges) {
-                    if (r.node1.equals(node)) newNeighbors.remove(r.node2);
-                    else if (r.node2.equals(node)) newNeighbors.remove(r.node1);
+        public double getImprovement() {
+            return improvement;
+        }
+    }
+
+    // ------------------------- RouteTour -------------------------
+    /**
+     * The route as a cyclic tour of n = size + 1 nodes, position 0 being the depot.
+     * Nodes are addressed by a local id (their position when the tour was built) which stays
+     * fixed while executed moves change the positions.
+     */
+    static final class RouteTour {
+        private static final int NUM_CANDIDATES = 4;
+
+        final int n;
+        private final Node[] nodeOf;     // local id -> node
+        private final int[] idAt;        // position -> local id
+        private final int[] posOf;       // local id -> position
+        private final CostEvaluator evaluator;
+
+        // local id -> other ids by increasing cost. A row holds every id up to the cost of the
+        // (NUM_CANDIDATES + 2)-th nearest one, so the candidates without the two tour neighbours
+        // are always in the row together with all ids of equal cost.
+        private final int[][] nearest;
+        private final int[][] nearestCosts;
+
+        // candidate lists of the current tour, recomputed lazily after a move
+        private final int[][] candidates;
+        private final int[][] candidateCosts;
+        private final int[] candidateStamp;
+        private int stamp = 1;
+
+        // scratch arrays of isSingleCycle
+        private int[] touched = new int[0];
+        private int[] touchedNeighbours = new int[0];
+        private int[] touchedDegree = new int[0];
+
+        RouteTour(Route route, CostEvaluator evaluator) {
+            this.n = route.getSize() + 1;
+            this.evaluator = evaluator;
+            this.nodeOf = new Node[n];
+            this.idAt = new int[n];
+            this.posOf = new int[n];
+            for (int p = 0; p < n; p++) {
+                nodeOf[p] = route.getNode(p);
+                idAt[p] = p;
+                posOf[p] = p;
+            }
+
+            this.nearest = new int[n][];
+            this.nearestCosts = new int[n][];
+            int rowLength = Math.min(NUM_CANDIDATES + 2, n - 1);
+            int[] costs = new int[n];
+            int[] smallest = new int[rowLength];
+            for (int v = 0; v < n; v++) {
+                // cost of the rowLength-th nearest id
+                int numSmallest = 0;
+                for (int w = 0; w < n; w++) {
+                    if (w == v) continue;
+                    int cost = cost(v, w);
+                    costs[w] = cost;
+                    if (numSmallest < rowLength || cost < smallest[numSmallest - 1]) {
+                        int i = Math.min(numSmallest, rowLength - 1);
+                        while (i > 0 && smallest[i - 1] > cost) {
+                            smallest[i] = smallest[i - 1];
+                            i--;
+                        }
+                        smallest[i] = cost;
+                        numSmallest = Math.min(numSmallest + 1, rowLength);
+                    }
+                }
+                int limit = rowLength > 0 ? smallest[rowLength - 1] : Integer.MIN_VALUE;
+
+                long[] row = new long[n];
+                int size = 0;
+                for (int w = 0; w < n; w++) {
+                    if (w != v && costs[w] <= limit) row[size++] = ((long) costs[w] << 32) | w;
                 }
-                for (LKEdge a : newEdges) {
-                    if (a.node1.equals(node)) newNeighbors.add(a.node2);
-                    else if (a.node2.equals(node)) newNeighbors.add(a.node1);
+                Arrays.sort(row, 0, size);
+                nearest[v] = new int[size];
+                nearestCosts[v] = new int[size];
+                for (int i = 0; i < size; i++) {
+                    nearest[v][i] = (int) row[i];
+                    nearestCosts[v][i] = (int) (row[i] >>> 32);
                 }
-                graph.put(node, newNeighbors);
             }
 
-            Node curNode = route.getDepot();
-            List<Node> newRoute = new ArrayList<>();
-            newRoute.add(curNode);
+            this.candidates = new int[n][];
+            this.candidateCosts = new int[n][];
+            this.candidateStamp = new int[n];
+        }
+
+        Node node(int v) { return nodeOf[v]; }
+        int idAt(int position) { return idAt[position]; }
+        int prev(int v) { return idAt[posOf[v] == 0 ? n - 1 : posOf[v] - 1]; }
+        int next(int v) { return idAt[posOf[v] == n - 1 ? 0 : posOf[v] + 1]; }
+        int cost(int v, int w) { return evaluator.getDistance(nodeOf[v], nodeOf[w]); }
+
+        /**
+         * Read the positions back from the route after a move was executed on it.
+         */
+        void update(Route route) {
+            for (int v = 0; v < n; v++) {
+                posOf[v] = route.getPosition(nodeOf[v]);
+                idAt[posOf[v]] = v;
+            }
+            stamp++;
+        }
 
-            while (newRoute.size() < route.getSize() + 1) {
-                List<Node> neighbors = graph.get(curNode);
-                assert neighbors.size() == 2;
+        /**
+         * Lowest cost of connecting v to a node which is not v or one of its tour neighbours.
+         */
+        int minCompletionCost(int v) {
+            for (int i = 0; i < nearest[v].length; i++) {
+                int w = nearest[v][i];
+                if (w != prev(v) && w != next(v)) return nearestCosts[v][i];
+            }
+            return Integer.MAX_VALUE;
+        }
 
-                if (!newRoute.contains(neighbors.get(1))) {
-                    curNode = neighbors.get(1);
+        /**
+         * Candidates for a new edge at v: all customers in route order for the depot, the NUM_CANDIDATES
+         * cheapest nodes except the tour neighbours for a customer (equal costs in route order, depot last).
+         */
+        int[] getCandidates(int v) {
+            if (candidateStamp[v] != stamp) {
+                if (posOf[v] == 0) {
+                    candidates[v] = new int[n - 1];
+                    candidateCosts[v] = new int[n - 1];
+                    for (int p = 1; p < n; p++) {
+                        candidates[v][p - 1] = idAt[p];
+                        candidateCosts[v][p - 1] = cost(v, idAt[p]);
+                    }
                 } else {
-                    curNode = neighbors.get(0);
+                    int[] row = nearest[v];
+                    int[] selected = new int[row.length];
+                    int[] selectedCosts = new int[row.length];
+                    int numSelected = 0;
+                    for (int i = 0; i < row.length && numSelected < NUM_CANDIDATES; ) {
+                        int groupStart = numSelected;
+                        int groupCost = nearestCosts[v][i];
+                        for (; i < row.length && nearestCosts[v][i] == groupCost; i++) {
+                            int w = row[i];
+                            if (w == prev(v) || w == next(v)) continue;
+                            int j = numSelected++;
+                            while (j > groupStart && routeOrder(selected[j - 1]) > routeOrder(w)) {
+                                selected[j] = selected[j - 1];
+                                selectedCosts[j] = selectedCosts[j - 1];
+                                j--;
+                            }
+                            selected[j] = w;
+                            selectedCosts[j] = groupCost;
+                        }
+                    }
+                    numSelected = Math.min(numSelected, NUM_CANDIDATES);
+                    candidates[v] = Arrays.copyOf(selected, numSelected);
+                    candidateCosts[v] = Arrays.copyOf(selectedCosts, numSelected);
                 }
+                candidateStamp[v] = stamp;
+            }
+            return candidates[v];
+        }
+
+        int[] getCandidateCosts(int v) {
+            getCandidates(v);
+            return candidateCosts[v];
+        }
+
+        // order of the nodes in route.getNodesExceptStart(): customers by position, then the depot
+        private int routeOrder(int v) {
+            return posOf[v] == 0 ? n : posOf[v];
+        }
 
-                assert !newRoute.contains(curNode);
-                newRoute.add(curNode);
+        /**
+         * Whether removing and adding the given edges (pairs of local ids) turns the tour into a single
+         * cycle through all n nodes, starting the walk at node start. Only the nodes touched by an edge
+         * are visited, untouched stretches of the tour are skipped by position arithmetic.
+         */
+        boolean isSingleCycle(int[] removed, int numRemoved, int[] added, int numAdded, int start) {
+            int maxTouched = 2 * (numRemoved + numAdded);
+            int maxDegree = 2 + numAdded;
+            if (touched.length < maxTouched || touchedNeighbours.length < maxTouched * maxDegree) {
+                touched = new int[maxTouched];
+                touchedDegree = new int[maxTouched];
+                touchedNeighbours = new int[maxTouched * maxDegree];
             }
 
-            newRoute.add(route.getDepot());
+            // neighbours of the touched nodes after the exchange
+            int numTouched = 0;
+            for (int e = 0; e < 2 * numRemoved; e++) numTouched = touch(removed[e], numTouched, maxDegree);
+            for (int e = 0; e < 2 * numAdded; e++) numTouched = touch(added[e], numTouched, maxDegree);
+            for (int e = 0; e < numRemoved; e++) {
+                unlink(removed[2 * e], removed[2 * e + 1], numTouched, maxDegree);
+                unlink(removed[2 * e + 1], removed[2 * e], numTouched, maxDegree);
+            }
+            for (int e = 0; e < numAdded; e++) {
+                link(added[2 * e], added[2 * e + 1], numTouched, maxDegree);
+                link(added[2 * e + 1], added[2 * e], numTouched, maxDegree);
+            }
+            for (int t = 0; t < numTouched; t++) {
+                if (touchedDegree[t] != 2) return false;
+            }
 
-            solution.rearrangeRoute(route, newRoute);
+            int cur = start;
+            int from;
+            int next = touchedNeighbours[indexOfTouched(start, numTouched) * maxDegree];
+            int count = 1;
+            while (true) {
+                if (indexOfTouched(next, numTouched) >= 0) {
+                    from = cur;
+                    cur = next;
+                } else {
+                    // next lies on an untouched stretch of the tour, continue to its first touched node
+                    boolean forward = posOf[next] == (posOf[cur] + 1) % n;
+                    int distance = n;
+                    for (int t = 0; t < numTouched; t++) {
+                        int d = forward ? posOf[touched[t]] - posOf[next] : posOf[next] - posOf[touched[t]];
+                        distance = Math.min(distance, d < 0 ? d + n : d);
+                    }
+                    count += distance;
+                    int p = forward ? posOf[next] + distance : posOf[next] - distance;
+                    p = (p % n + n) % n;
+                    from = idAt[forward ? (p + n - 1) % n : (p + 1) % n];
+                    cur = idAt[p];
+                }
+                if (cur == start) break;
+                if (++count > n) return false;
+
+                int t = indexOfTouched(cur, numTouched) * maxDegree;
+                next = touchedNeighbours[t] == from ? touchedNeighbours[t + 1] : touchedNeighbours[t];
+            }
+            return count == n;
         }
 
-        public double getImprovement() {
-            return improvement;
+        private int indexOfTouched(int v, int numTouched) {
+            for (int t = 0; t < numTouched; t++) {
+                if (touched[t] == v) return t;
+            }
+            return -1;
+        }
+
+        private int touch(int v, int numTouched, int maxDegree) {
+            if (indexOfTouched(v, numTouched) >= 0) return numTouched;
+            touched[numTouched] = v;
+            touchedDegree[numTouched] = 2;
+            touchedNeighbours[numTouched * maxDegree] = prev(v);
+            touchedNeighbours[numTouched * maxDegree + 1] = next(v);
+            return numTouched + 1;
+        }
+
+        private void unlink(int v, int w, int numTouched, int maxDegree) {
+            int t = indexOfTouched(v, numTouched);
+            int offset = t * maxDegree;
+            for (int i = 0; i < touchedDegree[t]; i++) {
+                if (touchedNeighbours[offset + i] == w) {
+                    System.arraycopy(touchedNeighbours, offset + i + 1, touchedNeighbours, offset + i,
+                            touchedDegree[t] - i - 1);
+                    touchedDegree[t]--;
+                    return;
+                }
+            }
+        }
+
+        private void link(int v, int w, int numTouched, int maxDegree) {
+            int t = indexOfTouched(v, numTouched);
+            touchedNeighbours[t * maxDegree + touchedDegree[t]++] = w;
         }
     }
 
     // ------------------------- LKMoveSearcher -------------------------
-    public static class LKMoveSearcher {
-        private final List<NOptMove> validMoves = new ArrayList<>();
-        private final Node endNode;
+    /**
+     * Sequential edge exchanges on a RouteTour, starting with the removal of the tour edge (endNode, startNode).
+     * Removed and added edges are kept on small stacks of local ids.
+     */
+    static final class LKMoveSearcher {
+        private final RouteTour tour;
         private final Route route;
+        private final int endNode;
         private final int maxDepth;
-        private final Map<Node, List<Map.Entry<Node, Integer>>> currentNeighbors;
-        private final Map<Node, List<Map.Entry<Node, Integer>>> possibleNewNeighbors;
-        private final Map<Node, Integer> completionCostsDict;
-        private final int minCompletionCosts;
-
-        public LKMoveSearcher(Route route, Node endNode, int maxDepth,
-                              Map<Node, List<Map.Entry<Node, Integer>>> possibleNewNeighbors,
-                              Map<Node, List<Map.Entry<Node, Integer>>> currentNeighbors,
-                              Map<Node, Integer> completionCostsDict) {
+        private final int minCompletionCost;
+
+        private final int[] removedEdges; // pairs of local ids
+        private final int[] addedEdges;
+        private int numRemoved = 0;
+        private int numAdded = 0;
+
+        private boolean moveFound = false;
+        private NOptMove bestMove = null;
+
+        LKMoveSearcher(RouteTour tour, Route route, int endNode, int maxDepth) {
+            this.tour = tour;
             this.route = route;
             this.endNode = endNode;
             this.maxDepth = maxDepth;
-            this.possibleNewNeighbors = possibleNewNeighbors;
-            this.currentNeighbors = currentNeighbors;
-            this.completionCostsDict = completionCostsDict;
-            this.minCompletionCosts = Collections.min(completionCostsDict.values());
+            this.minCompletionCost = tour.minCompletionCost(endNode);
+            this.removedEdges = new int[2 * (maxDepth + 1)];
+            this.addedEdges = new int[2 * (maxDepth + 1)];
         }
 
-        public void search(Node startNode, Set<LKEdge> addedEdges, Set<LKEdge> removedEdges,
-                           int cumImprovement, int changesMade) {
-            if (changesMade > 1) {
-                int completionCost = completionCostsDict.getOrDefault(startNode, Integer.MAX_VALUE);
-                if (cumImprovement - completionCost > 0) {
-                    LKEdge edgeToClose = normEdge(endNode, startNode);
-                    if (!addedEdges.contains(edgeToClose)) {
-                        addedEdges.add(edgeToClose);
-
-                        if (!hasSubRoutes(addedEdges, removedEdges)) {
-                            validMoves.add(new NOptMove(
-                                    new HashSet<>(removedEdges),
-                                    new HashSet<>(addedEdges),
-                                    cumImprovement - completionCost,
-                                    endNode,
-                                    route
-                            ));
-                        }
-                        addedEdges.remove(edgeToClose);
+        void run(int startNode) {
+            numRemoved = push(removedEdges, numRemoved, endNode, startNode);
+            search(startNode, tour.cost(startNode, endNode), 1);
+            numRemoved--;
+        }
+
+        private void search(int startNode, int cumImprovement, int changesMade) {
+            if (changesMade > 1 && startNode != endNode
+                    && startNode != tour.prev(endNode) && startNode != tour.next(endNode)) {
+                int completionCost = tour.cost(endNode, startNode);
+                if (cumImprovement - completionCost > 0 && !contains(addedEdges, numAdded, endNode, startNode)) {
+                    numAdded = push(addedEdges, numAdded, endNode, startNode);
+                    if (tour.isSingleCycle(removedEdges, numRemoved, addedEdges, numAdded, endNode)) {
+                        addMove(cumImprovement - completionCost);
                     }
+                    numAdded--;
                 }
             }
 
             if (changesMade >= maxDepth) return;
-            if (!validMoves.isEmpty()) return;
-
-            for (Map.Entry<Node, Integer> candidate : possibleNewNeighbors.get(startNode)) {
-                Node addEdgeTo = candidate.getKey();
-                int costAdded = candidate.getValue();
-
-                if (cumImprovement > costAdded) {
-                    LKEdge edgeToAdd = normEdge(startNode, addEdgeTo);
-                    if (!addedEdges.contains(edgeToAdd)) {
-                        for (Map.Entry<Node, Integer> neighbor : currentNeighbors.get(addEdgeTo)) {
-                            Node removeEdgeTo = neighbor.getKey();
-                            int costRemoved = neighbor.getValue();
-
-                            if (cumImprovement - costAdded + costRemoved > minCompletionCosts) {
-                                LKEdge edgeToRemove = normEdge(addEdgeTo, removeEdgeTo);
-                                if (!removedEdges.contains(edgeToRemove)) {
-
-                                    HashSet addedEdges_extended = new HashSet<>(addedEdges);
-                                    addedEdges_extended.add(edgeToAdd);
-                                    HashSet removedEdges_extended = new HashSet<>(removedEdges);
-                                    removedEdges_extended.add(edgeToRemove);
-
-                                    search(removeEdgeTo, addedEdges_extended, removedEdges_extended,
-                                            cumImprovement - costAdded + costRemoved, changesMade + 1);
-
-
-                                }
-                            }
+            if (moveFound) return;
+
+            int[] candidates = tour.getCandidates(startNode);
+            int[] candidateCosts = tour.getCandidateCosts(startNode);
+            for (int i = 0; i < candidates.length; i++) {
+                int addEdgeTo = candidates[i];
+                int costAdded = candidateCosts[i];
+
+                if (cumImprovement > costAdded && !contains(addedEdges, numAdded, startNode, addEdgeTo)) {
+                    for (int side = 0; side < 2; side++) {
+                        int removeEdgeTo = side == 0 ? tour.prev(addEdgeTo) : tour.next(addEdgeTo);
+                        int costRemoved = tour.cost(addEdgeTo, removeEdgeTo);
+                        int newImprovement = cumImprovement - costAdded + costRemoved;
+
+                        if (newImprovement > minCompletionCost
+                                && !contains(removedEdges, numRemoved, addEdgeTo, removeEdgeTo)) {
+                            numAdded = push(addedEdges, numAdded, startNode, addEdgeTo);
+                            numRemoved = push(removedEdges, numRemoved, addEdgeTo, removeEdgeTo);
+                            search(removeEdgeTo, newImprovement, changesMade + 1);
+                            numAdded--;
+                            numRemoved--;
                         }
                     }
                 }
             }
         }
 
-        private boolean hasSubRoutes(Set<LKEdge> addedEdges, Set<LKEdge> removedEdges) {
-            Map<Node, List<Node>> graph = new HashMap<>();
-            for (Node node : currentNeighbors.keySet()) {
-                List<Node> newNeighbors = new ArrayList<>(Arrays.asList(
-                        currentNeighbors.get(node).get(0).getKey(),
-                        currentNeighbors.get(node).get(1).getKey()
-                ));
-
-                for (LKEdge r : removedEdges) {
-                    if (r.node1.equals(node)) newNeighbors.remove(r.node2);
-                    else if (r.node2.equals(node)) newNeighbors.remove(r.node1);
-                }
-                for (LKEdge a : addedEdges) {
-                    if (a.node1.equals(node)) newNeighbors.add(a.node2);
-                    else if (a.node2.equals(node)) newNeighbors.add(a.node1);
-                }
-                graph.put(node, newNeighbors);
+        // keeps the first of the best moves
+        private void addMove(int improvement) {
+            moveFound = true;
+            if (bestMove == null || improvement > bestMove.getImprovement()) {
+                bestMove = new NOptMove(toEdges(removedEdges, numRemoved), toEdges(addedEdges, numAdded),
+                        improvement, tour.node(endNode), route);
             }
+        }
 
-            Set<Node> visited = new HashSet<>();
-            Deque<Node> queue = new ArrayDeque<>();
-            queue.add(endNode);
+        private Set<LKEdge> toEdges(int[] edges, int numEdges) {
+            Set<LKEdge> result = new HashSet<>();
+            for (int e = 0; e < numEdges; e++) {
+                result.add(normEdge(tour.node(edges[2 * e]), tour.node(edges[2 * e + 1])));
+            }
+            return result;
+        }
 
-            while (!queue.isEmpty()) {
-                Node node = queue.poll();
-                if (!visited.contains(node)) {
-                    visited.add(node);
-                    for (Node neighbor : graph.get(node)) {
-                        if (!visited.contains(neighbor)) queue.add(neighbor);
-                    }
-                }
+        private static int push(int[] edges, int numEdges, int v, int w) {
+            edges[2 * numEdges] = v;
+            edges[2 * numEdges + 1] = w;
+            return numEdges + 1;
+        }
+
+        private static boolean contains(int[] edges, int numEdges, int v, int w) {
+            for (int e = 0; e < numEdges; e++) {
+                int a = edges[2 * e];
+                int b = edges[2 * e + 1];
+                if ((a == v && b == w) || (a == w && b == v)) return true;
             }
-            return visited.size() != currentNeighbors.size();
+            return false;
         }
 
-        public List<NOptMove> getValidMoves() {
-            return validMoves;
+        NOptMove getBestMove() {
+            return bestMove;
         }
     }
 
     // ------------------------- Run Heuristic -------------------------
     public static void runLinKernighanHeuristic(VRPSolution solution, CostEvaluator evaluator,
                                                 Route route, int maxDepth) {
+        runLinKernighanHeuristic(solution, evaluator, route, maxDepth, VRPSolution.VALIDATION_OFF);
+    }
+
+    public static void runLinKernighanHeuristic(VRPSolution solution, CostEvaluator evaluator,
+                                                Route route, int maxDepth, int validationLevel) {
+        RouteTour tour = new RouteTour(route, evaluator);
+        int n = tour.n;
+        long[] edges = new long[n];
         boolean moveFound = true;
 
         while (moveFound) {
             moveFound = false;
-            Map<Node, List<Map.Entry<Node, Integer>>> neighbors =
-                    getCurrentNeighbors(route, evaluator, solution);
-            Map<Node, List<Map.Entry<Node, Integer>>> possibleNewNeighbors =
-                    getCandidateNeighbors(route, evaluator, solution);
-
-            List<Edge> edges = new ArrayList<>(route.getEdges());
-            edges.sort((e1, e2) ->
-                    Integer.compare(
-                            evaluator.getDistance(e2.getFirstNode(), e2.getSecondNode()),
-                            evaluator.getDistance(e1.getFirstNode(), e1.getSecondNode())
-                    )
-            );
-
-            for (Edge edge : edges) {
-                List<NOptMove> validMoves = new ArrayList<>();
-                for (int startIndex = 0; startIndex < 2; startIndex++) {
-                    Node startNode = edge.getFirstNode();
-                    Node endNode = edge.getSecondNode();
-                    if (startIndex == 1) {
-                        startNode = edge.getSecondNode();
-                        endNode = edge.getFirstNode();
-                    }
 
-                    Map<Node, Integer> completionCosts = new HashMap<>();
-                    for (Node node : route.getNodesExceptStart()) {
-                        if (!node.equals(endNode) &&
-                                !node.equals(neighbors.get(endNode).get(0).getKey()) &&
-                                !node.equals(neighbors.get(endNode).get(1).getKey())) {
-                            completionCosts.put(node, evaluator.getDistance(endNode, node));
-                        }
-                    }
+            // edge i connects positions i and i + 1; most expensive first, ties in route order
+            for (int i = 0; i < n; i++) {
+                int cost = tour.cost(tour.idAt(i), tour.idAt((i + 1) % n));
+                edges[i] = ((long) -cost << 32) | i;
+            }
+            Arrays.sort(edges);
+
+            for (long edge : edges) {
+                int position = (int) edge;
+                // as in Edge, the node with the higher id comes first
+                int first = tour.idAt(position);
+                int second = tour.idAt((position + 1) % n);
+                if (tour.node(first).getNodeId() < tour.node(second).getNodeId()) {
+                    int swap = first;
+                    first = second;
+                    second = swap;
+                }
 
-                    LKMoveSearcher searcher = new LKMoveSearcher(route, endNode, maxDepth,
-                            possibleNewNeighbors, neighbors, completionCosts);
+                NOptMove bestMove = null;
+                for (int startIndex = 0; startIndex < 2; startIndex++) {
+                    int startNode = startIndex == 0 ? first : second;
+                    int endNode = startIndex == 0 ? second : first;
 
-                    searcher.search(startNode,
-                            new HashSet<>(),
-                            new HashSet<>(Collections.singleton(normEdge(endNode, startNode))),
-                            evaluator.getDistance(startNode, endNode), 1);
+                    LKMoveSearcher searcher = new LKMoveSearcher(tour, route, endNode, maxDepth);
+                    searcher.run(startNode);
 
-                    validMoves.addAll(searcher.getValidMoves());
+                    NOptMove move = searcher.getBestMove();
+                    if (move != null && (bestMove == null || move.getImprovement() > bestMove.getImprovement())) {
+                        bestMove = move;
+                    }
                 }
 
-                if (!validMoves.isEmpty()) {
-                    double oldCost = evaluator.getRouteCosts(route);
-                    validMoves.sort(Comparator.comparingDouble(NOptMove::getImprovement).reversed());
-                    NOptMove bestMove = validMoves.get(0);
+                if (bestMove != null) {
+                    double oldCost = solution.getRouteCosts(route, false);
                     bestMove.execute(solution);
+                    tour.update(route);
 
-                    double newCost = evaluator.getRouteCosts(route);
+                    double newCost = solution.getRouteCosts(route, false);
                     double improvement = oldCost - newCost;
 
                     assert Math.abs(improvement - bestMove.getImprovement()) < 1e-6;
 
-                    solution.validate();
+                    solution.validate(validationLevel, Collections.singleton(route));
                     solution.addStat("move_count_linKernighan", 1.0);
 
                     moveFound = true;
@@ -326,64 +582,4 @@ public class LinKernighan {
             }
         }
     }
-
-    // ------------------------- Helpers -------------------------
-    public static Map<Node, List<Map.Entry<Node, Integer>>> getCandidateNeighbors(
-            Route route, CostEvaluator evaluator, VRPSolution solution) {
-        Map<Node, List<Map.Entry<Node, Integer>>> possible = new HashMap<>();
-        Node depot = route.getDepot();
-
-        List<Map.Entry<Node, Integer>> depotNeighbors = new ArrayList<>();
-        for (Node customer : route.getCustomers()) {
-            depotNeighbors.add(new AbstractMap.SimpleEntry<>(customer, evaluator.getDistance(depot, customer)));
-        }
-        possible.put(depot, depotNeighbors);
-
-        for (int i = 0; i < route.getCustomers().size(); i++) {
-            Node customer = route.getCustomers().get(i);
-            List<Map.Entry<Node, Integer>> nearest = new ArrayList<>();
-            
-            Node left_neighbour = solution.neighbour(customer, 0);
-            Node right_neighbour = solution.neighbour(customer, 1);
-            for (Node node : route.getNodesExceptStart()) {
-                if (!node.equals(customer) &&
-                        !node.equals(left_neighbour) &&
-                        !node.equals(right_neighbour)) {
-                    nearest.add(new AbstractMap.SimpleEntry<>(node, evaluator.getDistance(customer, node)));
-                }
-            }
-            nearest.sort(Comparator.comparingInt(Map.Entry::getValue));
-            possible.put(customer, nearest.subList(0, Math.min(4, nearest.size())));
-        }
-        return possible;
-    }
-
-    public static Map<Node, List<Map.Entry<Node, Integer>>> getCurrentNeighbors(
-            Route route, CostEvaluator evaluator, VRPSolution solution) {
-        Map<Node, List<Map.Entry<Node, Integer>>> neighbors = new HashMap<>();
-        Node depot = route.getDepot();
-
-        List<Node> nodes = route.getNodesExceptStart();
-        for (int i = 0; i < nodes.size(); i++) {
-            Node node = nodes.get(i);
-            if (node.isDepot()) continue;
-
-            Node left_neighbour = solution.neighbour(node, 0);
-            Node right_neighbour = solution.neighbour(node, 1);
-
-            neighbors.put(node, Arrays.asList(
-                    new AbstractMap.SimpleEntry<>(left_neighbour, evaluator.getDistance(node, left_neighbour)),
-                    new AbstractMap.SimpleEntry<>(right_neighbour, evaluator.getDistance(node, right_neighbour))
-            ));
-        }
-
-        neighbors.put(depot, Arrays.asList(
-                new AbstractMap.SimpleEntry<>(route.getCustomers().get(route.getCustomers().size() - 1),
-                        evaluator.getDistance(depot, route.getCustomers().get(route.getCustomers().size() - 1))),
-                new AbstractMap.SimpleEntry<>(route.getCustomers().get(0),
-                        evaluator.getDistance(depot, route.getCustomers().get(0)))
-        ));
-
-        return neighbors;
-    }
 }
@@ -2,6 +2,7 @@ package localsearch;
 import datastructures.Edge;
 import datastructures.Node;
 import datastructures.Pair;
+import datastructures.ParallelLoops;
 import datastructures.Route;
 import datastructures.VRPSolution;
 import datastructures.CostEvaluator;
@@ -12,6 +13,18 @@ public class LocalSearch {
 
     private static final Logger logger = Logger.getLogger(LocalSearch.class.getName());
 
+    // -------------------------------
+    // Verify the incremental cost ledger
+    // -------------------------------
+    public static void verifyCosts(VRPSolution solution, CostEvaluator costEvaluator) {
+        int ledgerCosts = solution.getCosts(false);
+        int recomputedCosts = costEvaluator.getSolutionCosts(solution, false);
+        if (ledgerCosts != recomputedCosts) {
+            throw new RuntimeException("Solution costs were tracked as " + ledgerCosts
+                    + " but recomputed as " + recomputedCosts);
+        }
+    }
+
     // -------------------------------
     // Improve a single route
     // -------------------------------
@@ -23,15 +36,61 @@ public class LocalSearch {
     ) {
         long start = System.currentTimeMillis();
 
+        runLinKernighan(route, solution, costEvaluator, runParameters,
+                (Integer) runParameters.get("validation_level"));
+
+        long end = System.currentTimeMillis();
+        solution.addStat("time_lin_kernighan", (end - start));
+    }
+
+    private static void runLinKernighan(
+            Route route,
+            VRPSolution solution,
+            CostEvaluator costEvaluator,
+            Map<String, Object> runParameters,
+            int validationLevel
+    ) {
         if (route.getSize() > 2) {
-            // Call Lin-Kernighan heuristic
             LinKernighan.runLinKernighanHeuristic(
                     solution,
                     costEvaluator,
                     route,
-                    (Integer) runParameters.get("depth_lin_kernighan")
+                    (Integer) runParameters.get("depth_lin_kernighan"),
+                    validationLevel
             );
         }
+    }
+
+    // -------------------------------
+    // Improve several routes
+    // -------------------------------
+    // Lin-Kernighan only changes the route it runs on, so with parallel_search set the routes are
+    // optimized concurrently. The result does not depend on the order in which the routes are processed.
+    public static void improveRoutes(
+            Collection<Route> routes,
+            VRPSolution solution,
+            CostEvaluator costEvaluator,
+            Map<String, Object> runParameters
+    ) {
+        boolean parallel = (int) runParameters.get("parallel_search") > 0;
+        if (!parallel || routes.size() < 2) {
+            for (Route route : routes) {
+                improveRoute(route, solution, costEvaluator, runParameters);
+            }
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        // a full validation would read routes which are changed at the same time, it is done once afterwards
+        int validationLevel = (Integer) runParameters.get("validation_level");
+        int routeValidationLevel = Math.min(validationLevel, VRPSolution.VALIDATION_ROUTES);
+        List<Route> routeList = new ArrayList<>(routes);
+        ParallelLoops.forEachIndex(routeList.size(), true, i ->
+                runLinKernighan(routeList.get(i), solution, costEvaluator, runParameters, routeValidationLevel));
+        if (validationLevel > routeValidationLevel) {
+            solution.validate(validationLevel, routeList);
+        }
 
         long end = System.currentTimeMillis();
         solution.addStat("time_lin_kernighan", (end - start));
@@ -40,24 +99,77 @@ public class LocalSearch {
     // -------------------------------
     // Get disjunct moves
     // -------------------------------
+    // Greedily selects moves which share no route with an earlier selected move.
+    // The routes of selected moves are marked by route index, so each candidate is checked once.
     public static List<LocalSearchMove> getDisjunctMoves(List<? extends LocalSearchMove> moves) {
         List<LocalSearchMove> disjunctMoves = new ArrayList<>();
+        BitSet usedRoutes = new BitSet();
 
         for (LocalSearchMove move : moves) {
+            Set<Route> routes = move.getRoutes();
             boolean isDisjunct = true;
-            for (LocalSearchMove disjunctMove : disjunctMoves) {
-                if (!move.isDisjunct(disjunctMove)) {
+            for (Route route : routes) {
+                if (usedRoutes.get(route.getRouteIndex())) {
                     isDisjunct = false;
                     break;
                 }
             }
             if (isDisjunct) {
+                for (Route route : routes) {
+                    usedRoutes.set(route.getRouteIndex());
+                }
                 disjunctMoves.add(move);
             }
         }
         return disjunctMoves;
     }
 
+    // -------------------------------
+    // Execute disjunct moves
+    // -------------------------------
+    // The moves change pairwise disjoint routes, so with parallel set they are executed concurrently.
+    // Every move is checked against the costs of its own routes, the cost ledger once for the whole batch.
+    public static void executeDisjunctMoves(
+            List<LocalSearchMove> moves,
+            VRPSolution solution,
+            String operatorName,
+            boolean parallel
+    ) {
+        // also brings the penalized route costs up to date before the routes are changed
+        double oldCosts = solution.getCosts(false);
+
+        ParallelLoops.forEachIndex(moves.size(), parallel, i -> {
+            LocalSearchMove move = moves.get(i);
+            double oldRouteCosts = getRouteCosts(solution, move.getRoutes());
+
+            move.execute(solution);
+
+            double improvement = oldRouteCosts - getRouteCosts(solution, move.getRoutes());
+            if (Math.abs(improvement - move.getImprovement()) > 1e-6) {
+                throw new RuntimeException("Improvement of move " + operatorName + " was " + improvement
+                        + " but expected " + move.getImprovement());
+            }
+        });
+
+        double expectedImprovement = 0;
+        for (LocalSearchMove move : moves) {
+            expectedImprovement += move.getImprovement();
+        }
+        double improvement = oldCosts - solution.getCosts(false);
+        if (Math.abs(improvement - expectedImprovement) > 1e-6) {
+            throw new RuntimeException("Improvement of " + moves.size() + " moves " + operatorName + " was "
+                    + improvement + " but expected " + expectedImprovement);
+        }
+    }
+
+    private static double getRouteCosts(VRPSolution solution, Set<Route> routes) {
+        double costs = 0;
+        for (Route route : routes) {
+            costs += solution.getRouteCosts(route, false);
+        }
+        return costs;
+    }
+
     // -------------------------------
     // Find best improving moves
     // -------------------------------
@@ -71,12 +183,19 @@ public class LocalSearch {
     ) {
        
         long start = System.currentTimeMillis();
+        boolean useMoveCache = (int) runParameters.get("move_cache") > 0;
+        boolean parallelSearch = (int) runParameters.get("parallel_search") > 0;
         List<? extends LocalSearchMove> candidateMoves = switch (operatorName) {
-            case "segment_move" -> SegmentMoveOperator.search3OptMoves(solution, costEvaluator, startNodes);
+            case "segment_move" -> SegmentMoveOperator.search3OptMoves(
+                    solution, costEvaluator, startNodes, useMoveCache, parallelSearch
+            );
             case "relocation_chain" -> RelocationChainSearch.searchRelocationChains(
-                    solution, costEvaluator, startNodes, (int) runParameters.get("depth_relocation_chain")
+                    solution, costEvaluator, startNodes, (int) runParameters.get("depth_relocation_chain"),
+                    parallelSearch
+            );
+            case "cross_exchange" -> CrossExchangeOperator.searchCrossExchanges(
+                    solution, costEvaluator, startNodes, useMoveCache, parallelSearch
             );
-            case "cross_exchange" -> CrossExchangeOperator.searchCrossExchanges(solution, costEvaluator, startNodes);
             default -> throw new IllegalArgumentException("Operator '" + operatorName + "' is not defined");
         };
 
@@ -84,35 +203,29 @@ public class LocalSearch {
         solution.addStat("time_" + operatorName, (end - start));
 
         if (candidateMoves != null && !candidateMoves.isEmpty()) {
-            logger.fine("Found " + candidateMoves.size() + " improving moves, current solution value: "
-                    + costEvaluator.getSolutionCosts(solution, false));
+            logger.fine(() -> "Found " + candidateMoves.size() + " improving moves, current solution value: "
+                    + solution.getCosts(false));
 
+            boolean verifyCosts = (int) runParameters.get("verify_costs") > 0;
+            int validationLevel = (int) runParameters.get("validation_level");
             Set<Route> changedRoutes = new HashSet<>();
             List<LocalSearchMove> disjunctMoves = getDisjunctMoves(candidateMoves);
-
-            // Execute the moves
             for (LocalSearchMove move : disjunctMoves) {
                 changedRoutes.addAll(move.getRoutes());
-                double oldCosts = costEvaluator.getSolutionCosts(solution, false);
-
-                move.execute(solution);
-                solution.addStat("move_count_" + operatorName, 1.0);
+            }
 
-                double newCosts = costEvaluator.getSolutionCosts(solution, false);
-                double improvement = oldCosts - newCosts;
+            // Execute the moves as one batch, verified once for all changed routes
+            executeDisjunctMoves(disjunctMoves, solution, operatorName, parallelSearch);
+            solution.addStat("move_count_" + operatorName, disjunctMoves.size());
 
-                if (Math.abs(improvement - move.getImprovement()) > 1e-6) {
-                    throw new RuntimeException("Improvement of move " + operatorName + " was " + improvement
-                            + " but expected " + move.getImprovement());
-                }
-                solution.validate();
+            if (verifyCosts) {
+                verifyCosts(solution, costEvaluator);
             }
+            solution.validate(validationLevel, changedRoutes);
 
             // Optimize all changed routes
             if (intraRouteOpt) {
-                for (Route route : changedRoutes) {
-                    improveRoute(route, solution, costEvaluator, runParameters);
-                }
+                improveRoutes(changedRoutes, solution, costEvaluator, runParameters);
             }
 
             return new Pair<>(disjunctMoves.size(), changedRoutes);
@@ -128,7 +241,7 @@ public class LocalSearch {
     public static Pair<Integer, Set<Route>> localSearch(
             VRPSolution solution,
             CostEvaluator costEvaluator,
-            Set<Node> startFromNodes,
+            Collection<Node> startFromNodes,
             boolean intraRouteOpt,
             Map<String, Object> runParameters
     ) {
@@ -165,11 +278,28 @@ public class LocalSearch {
             Map<String, Object> runParameters
     ) {
         // Intra-route optimization
-        for (Route route : startSearchFromRoutes) {
-            improveRoute(route, solution, costEvaluator, runParameters);
-        }
+        improveRoutes(startSearchFromRoutes, solution, costEvaluator, runParameters);
 
         // Inter-route optimization
+        if ((int) runParameters.get("active_node_search") > 0) {
+            // Each pass only starts from the customers whose don't-look bit was cleared by the previous one
+            ActiveNodes activeNodes = solution.getSearchCache("active_nodes", () -> new ActiveNodes(solution));
+            activeNodes.activateRoutes(solution, startSearchFromRoutes);
+            List<Node> startFromNodes = activeNodes.drain();
+            while (!startFromNodes.isEmpty()) {
+                Pair<Integer, Set<Route>> result = localSearch(
+                        solution,
+                        costEvaluator,
+                        startFromNodes,
+                        true,
+                        runParameters
+                );
+                activeNodes.activateChanged(solution, costEvaluator, result.getSecond());
+                startFromNodes = activeNodes.drain();
+            }
+            return;
+        }
+
         Set<Node> startFromNodes = new HashSet<>();
         for (Route route : startSearchFromRoutes) {
             startFromNodes.addAll(route.getCustomers());
@@ -0,0 +1,63 @@
+package localsearch;
+import datastructures.CostEvaluator;
+import datastructures.Node;
+import datastructures.Route;
+import datastructures.VRPSolution;
+import java.util.*;
+
+
+/**
+ * MoveCache: the candidate moves found from each start node, reused while the versions of its route and of
+ * its neighbours' routes and the penalty state of the evaluator are unchanged.
+ */
+final class MoveCache<M extends LocalSearchMove> {
+
+    private static final class Entry<M extends LocalSearchMove> {
+        Route[] routes;     // route of the start node, then the route of every neighbour
+        int[] versions;
+        long penaltyState;
+        MoveSelector<M> moves;
+    }
+
+    private final Map<Node, Entry<M>> entries = new HashMap<>();
+
+    /**
+     * Cached candidates of a start node, or null if they have to be searched again.
+     */
+    MoveSelector<M> get(Node startNode, VRPSolution solution, CostEvaluator evaluator) {
+        Entry<M> entry = entries.get(startNode);
+        if (entry == null || entry.penaltyState != penaltyState(evaluator)) return null;
+
+        List<Node> neighbourhood = evaluator.getNeighborhood(startNode);
+        if (entry.routes.length != neighbourhood.size() + 1) return null;
+        for (int i = 0; i < entry.routes.length; i++) {
+            Route route = solution.routeOf(i == 0 ? startNode : neighbourhood.get(i - 1));
+            if (route != entry.routes[i] || route.getVersion() != entry.versions[i]) return null;
+        }
+        return entry.moves;
+    }
+
+    /**
+     * Store the candidates just searched from a start node.
+     */
+    void put(Node startNode, VRPSolution solution, CostEvaluator evaluator, MoveSelector<M> moves) {
+        Entry<M> current = entries.get(startNode);
+        if (current != null && current.moves == moves) return; // taken from the cache
+
+        List<Node> neighbourhood = evaluator.getNeighborhood(startNode);
+        Entry<M> entry = new Entry<>();
+        entry.routes = new Route[neighbourhood.size() + 1];
+        entry.versions = new int[neighbourhood.size() + 1];
+        for (int i = 0; i < entry.routes.length; i++) {
+            entry.routes[i] = solution.routeOf(i == 0 ? startNode : neighbourhood.get(i - 1));
+            entry.versions[i] = entry.routes[i].getVersion();
+        }
+        entry.penaltyState = penaltyState(evaluator);
+        entry.moves = moves;
+        entries.put(startNode, entry);
+    }
+
+    private static long penaltyState(CostEvaluator evaluator) {
+        return evaluator.isPenalizationEnabled() ? evaluator.getPenaltyVersion() : -1;
+    }
+}
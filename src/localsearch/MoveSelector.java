@@ -0,0 +1,106 @@
+package localsearch;
+import datastructures.ParallelLoops;
+import datastructures.Route;
+import java.util.*;
+import java.util.function.IntFunction;
+
+
+/**
+ * MoveSelector: streaming selection of the candidate moves of one operator search.
+ * Only the best candidate per set of changed routes is kept, ties go to the one offered first.
+ */
+public final class MoveSelector<M extends LocalSearchMove> {
+    private Map<Object, Candidate<M>> bestPerRoutes = null; // created with the first candidate
+    private int numOffered = 0;
+
+    private static final class Candidate<M> {
+        Object routeKey;
+        M move;
+        double improvement;
+        int sequence; // order in which the candidate was offered
+    }
+
+    /**
+     * Offer a candidate move. routeKey identifies the set of routes changed by the move.
+     */
+    public void offer(Object routeKey, M move) {
+        int sequence = numOffered++;
+        if (bestPerRoutes == null) bestPerRoutes = new HashMap<>();
+        Candidate<M> best = bestPerRoutes.get(routeKey);
+        if (best == null) {
+            best = new Candidate<>();
+            best.routeKey = routeKey;
+            bestPerRoutes.put(routeKey, best);
+        } else if (move.getImprovement() <= best.improvement) {
+            return;
+        }
+        best.move = move;
+        best.improvement = move.getImprovement();
+        best.sequence = sequence;
+    }
+
+    /**
+     * Route key of a move changing two routes, independent of their order.
+     */
+    public static Long routePairKey(Route route1, Route route2) {
+        long first = Math.min(route1.getRouteIndex(), route2.getRouteIndex());
+        long second = Math.max(route1.getRouteIndex(), route2.getRouteIndex());
+        return (first << 32) | (second & 0xffffffffL);
+    }
+
+    /**
+     * Offer the kept candidates of another selector, in the order they were offered there.
+     * Offering the candidates of several selectors one after the other keeps the same moves as
+     * offering all their candidates to a single selector in that order.
+     */
+    public void offerAll(MoveSelector<M> other) {
+        if (other.bestPerRoutes == null) return;
+        List<Candidate<M>> candidates = new ArrayList<>(other.bestPerRoutes.values());
+        candidates.sort(Comparator.comparingInt(c -> c.sequence));
+        for (Candidate<M> candidate : candidates) {
+            offer(candidate.routeKey, candidate.move);
+        }
+    }
+
+    /**
+     * Run numTasks searches, each filling a selector of its own. The searches must only read the solution.
+     */
+    public static <M extends LocalSearchMove> List<MoveSelector<M>> searchEach(
+            int numTasks, boolean parallel, IntFunction<MoveSelector<M>> search) {
+        List<MoveSelector<M>> results = new ArrayList<>(Collections.nCopies(numTasks, null));
+        ParallelLoops.forEachIndex(numTasks, parallel, i -> results.set(i, search.apply(i)));
+        return results;
+    }
+
+    /**
+     * The candidates of several selectors offered selector by selector. Merging the results of searchEach
+     * in task order keeps exactly the moves of running the searches one after the other, so a parallel
+     * search selects the same moves as a sequential one.
+     */
+    public static <M extends LocalSearchMove> MoveSelector<M> merge(List<MoveSelector<M>> selectors) {
+        MoveSelector<M> merged = new MoveSelector<>();
+        for (MoveSelector<M> selector : selectors) {
+            merged.offerAll(selector);
+        }
+        return merged;
+    }
+
+    public int getNumOffered() {
+        return numOffered;
+    }
+
+    /**
+     * Kept candidates, best improvement first, ties in the order they were offered.
+     */
+    public List<M> getSortedMoves() {
+        if (bestPerRoutes == null) return new ArrayList<>();
+        List<Candidate<M>> candidates = new ArrayList<>(bestPerRoutes.values());
+        candidates.sort((c1, c2) -> c1.improvement != c2.improvement
+                ? Double.compare(c2.improvement, c1.improvement)
+                : Integer.compare(c1.sequence, c2.sequence));
+
+        List<M> moves = new ArrayList<>(candidates.size());
+        for (Candidate<M> candidate : candidates) moves.add(candidate.move);
+        return moves;
+    }
+}
@@ -82,9 +82,9 @@ class RelocationChain implements LocalSearchMove {
     @Override
     public boolean isDisjunct(LocalSearchMove other) {
         if (!(other instanceof RelocationChain)) return true;
-        RelocationChain o = (RelocationChain) other;
-        for (Route r : this.getRoutes()) {
-            if (o.getRoutes().contains(r)) return false;
+        Set<Route> otherRoutes = ((RelocationChain) other).getRoutes();
+        for (Relocation r : relocations) {
+            if (otherRoutes.contains(r.moveFromRoute) || otherRoutes.contains(r.moveToRoute)) return false;
         }
         return true;
     }
@@ -162,7 +162,7 @@ class RelocationChainSearch {
         return null;
     }
 
-    public static void searchRelocationChainsFrom(List<RelocationChain> validChains,
+    public static void searchRelocationChainsFrom(MoveSelector<RelocationChain> validChains,
                                                   VRPSolution solution, CostEvaluator evaluator,
                                                   Node nodeToMove, int maxDepth,
                                                   int currentDepth, RelocationChain curChain) {
@@ -201,7 +201,7 @@ class RelocationChainSearch {
             int newRouteVolume = destinationRoute.getVolume() + extended.demandChanges.getOrDefault(destinationRoute, 0);
 
             if (evaluator.isFeasible(newRouteVolume)) {
-                validChains.add(extended);
+                validChains.offer(extended.getRoutes(), extended);
             } else if (extended.relocations.size() < maxDepth) {
                 for (Node candidateNode : destinationRoute.getCustomers()) {
                     if (evaluator.isFeasible(newRouteVolume - candidateNode.demand)) {
@@ -219,11 +219,21 @@ class RelocationChainSearch {
                                                                CostEvaluator evaluator,
                                                                List<Node> startNodes,
                                                                int maxDepth) {
-        List<RelocationChain> found = new ArrayList<>();
-        for (Node startNode : startNodes) {
-            searchRelocationChainsFrom(found, solution, evaluator, startNode, maxDepth, 0, null);
-        }
-        found.sort(Comparator.comparingDouble(r -> -r.improvement));
-        return found;
+        return searchRelocationChains(solution, evaluator, startNodes, maxDepth, false);
+    }
+
+    // With parallel set, the depth-first searches of the start nodes run concurrently.
+    public static List<RelocationChain> searchRelocationChains(VRPSolution solution,
+                                                               CostEvaluator evaluator,
+                                                               List<Node> startNodes,
+                                                               int maxDepth,
+                                                               boolean parallel) {
+        List<MoveSelector<RelocationChain>> foundPerStartNode = MoveSelector.searchEach(
+                startNodes.size(), parallel, i -> {
+                    MoveSelector<RelocationChain> found = new MoveSelector<>();
+                    searchRelocationChainsFrom(found, solution, evaluator, startNodes.get(i), maxDepth, 0, null);
+                    return found;
+                });
+        return MoveSelector.merge(foundPerStartNode).getSortedMoves();
     }
 }
@@ -13,20 +13,30 @@ public class SegmentMoveOperator {
 
     /**
      * Move: relocating a contiguous segment of nodes into another route.
+     * The segment is described by its end nodes only and materialized when the move is executed.
      */
     public static class SegmentMove implements LocalSearchMove {
-        private final List<Node> segment;
+        private final Node segmentStart;
+        private final Node segmentEnd;
+        private final int segmentDirection; // direction in which the segment extends from segmentStart
+        private final boolean reversed;     // insert the segment from segmentEnd to segmentStart
         private final Route fromRoute;
         private final Route toRoute;
         private final Node moveAfter;
         private final double improvement;
 
-        public SegmentMove(List<Node> segment,
+        public SegmentMove(Node segmentStart,
+                           Node segmentEnd,
+                           int segmentDirection,
+                           boolean reversed,
                            Route fromRoute,
                            Route toRoute,
                            Node moveAfter,
                            double improvement) {
-            this.segment = new ArrayList<>(segment);
+            this.segmentStart = segmentStart;
+            this.segmentEnd = segmentEnd;
+            this.segmentDirection = segmentDirection;
+            this.reversed = reversed;
             this.fromRoute = fromRoute;
             this.toRoute = toRoute;
             this.moveAfter = moveAfter;
@@ -35,6 +45,7 @@ public class SegmentMoveOperator {
 
         @Override
         public void execute(VRPSolution solution) {
+            List<Node> segment = getSegment(solution, segmentStart, segmentEnd, segmentDirection, reversed);
             logger.fine(() -> "Executing Segment relocation with segment of size "
                     + segment.size() + " and improvement " + (int) improvement);
 
@@ -67,16 +78,33 @@ public class SegmentMoveOperator {
     }
 
     /**
-     * Search for segment relocation moves starting from one node.
+     * Nodes from start to end (walking in the given direction), optionally in reversed order.
      */
-    public static List<SegmentMove> search3OptMovesFrom(
+    static List<Node> getSegment(VRPSolution solution, Node start, Node end, int direction, boolean reversed) {
+        List<Node> segment = new ArrayList<>();
+        Node node = start;
+        segment.add(node);
+        while (node != end) {
+            node = solution.neighbour(node, direction);
+            segment.add(node);
+        }
+        if (reversed) {
+            Collections.reverse(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Search for segment relocation moves starting from one node and offer them to the selector.
+     */
+    public static void search3OptMovesFrom(
             VRPSolution solution,
             CostEvaluator evaluator,
             Node startNode,
             List<Integer> segmentDirections,
-            List<Integer> insertDirections
+            List<Integer> insertDirections,
+            MoveSelector<SegmentMove> candidateMoves
     ) {
-        List<SegmentMove> candidateMoves = new ArrayList<>();
         Route fromRoute = solution.routeOf(startNode);
 
         for (int segmentDirection : segmentDirections) {
@@ -97,8 +125,6 @@ public class SegmentMoveOperator {
 
                         if (moveStartImprovement > 0) {
                             Node segmentEnd = startNode;
-                            List<Node> segmentList = new ArrayList<>();
-                            segmentList.add(segmentEnd);
                             int route2NewVolume = toRoute.getVolume() + segmentEnd.getDemand();
 
                             while (!segmentEnd.isDepot()
@@ -116,8 +142,11 @@ public class SegmentMoveOperator {
                                 if (improvement > 0) {
                                     Node insertAfter = (insertDirection == 1) ? insertNextTo : insertNextTo2;
 
-                                    candidateMoves.add(new SegmentMove(
-                                            new ArrayList<>(segmentList),
+                                    candidateMoves.offer(MoveSelector.routePairKey(fromRoute, toRoute), new SegmentMove(
+                                            startNode,
+                                            segmentEnd,
+                                            segmentDirection,
+                                            insertDirection != 1,
                                             fromRoute,
                                             toRoute,
                                             insertAfter,
@@ -127,11 +156,6 @@ public class SegmentMoveOperator {
 
                                 // extend the segment
                                 segmentEnd = segmentDisconnect2;
-                                if (insertDirection == 1) {
-                                    segmentList.add(segmentEnd);
-                                } else {
-                                    segmentList.add(0, segmentEnd);
-                                }
                                 route2NewVolume += segmentEnd.getDemand();
                             }
                         }
@@ -139,8 +163,6 @@ public class SegmentMoveOperator {
                 }
             }
         }
-
-        return candidateMoves;
     }
 
     /**
@@ -151,17 +173,45 @@ public class SegmentMoveOperator {
             CostEvaluator evaluator,
             List<Node> startNodes
     ) {
-        List<SegmentMove> allMoves = new ArrayList<>();
-        for (Node startNode : startNodes) {
-            allMoves.addAll(search3OptMovesFrom(
-                    solution,
-                    evaluator,
-                    startNode,
-                    Arrays.asList(0, 1),
-                    Arrays.asList(0, 1)
-            ));
+        return search3OptMoves(solution, evaluator, startNodes, false, false);
+    }
+
+    /**
+     * Run search from multiple nodes, reusing the candidates of start nodes whose routes did not change.
+     * With parallel set, the start nodes are searched concurrently.
+     */
+    public static List<SegmentMove> search3OptMoves(
+            VRPSolution solution,
+            CostEvaluator evaluator,
+            List<Node> startNodes,
+            boolean useMoveCache,
+            boolean parallel
+    ) {
+        MoveCache<SegmentMove> cache = useMoveCache
+                ? solution.getSearchCache("segment_move", MoveCache::new)
+                : null;
+        List<MoveSelector<SegmentMove>> movesPerStartNode = MoveSelector.searchEach(startNodes.size(), parallel, i -> {
+            Node startNode = startNodes.get(i);
+            MoveSelector<SegmentMove> startNodeMoves = cache != null ? cache.get(startNode, solution, evaluator) : null;
+            if (startNodeMoves == null) {
+                startNodeMoves = new MoveSelector<>();
+                search3OptMovesFrom(
+                        solution,
+                        evaluator,
+                        startNode,
+                        Arrays.asList(0, 1),
+                        Arrays.asList(0, 1),
+                        startNodeMoves
+                );
+            }
+            return startNodeMoves;
+        });
+
+        if (cache != null) {
+            for (int i = 0; i < startNodes.size(); i++) {
+                cache.put(startNodes.get(i), solution, evaluator, movesPerStartNode.get(i));
+            }
         }
-        allMoves.sort(Comparator.comparingDouble(SegmentMove::getImprovement).reversed());
-        return allMoves;
+        return MoveSelector.merge(movesPerStartNode).getSortedMoves();
     }
 }
@@ -74,7 +74,7 @@ public final class VRPInstanceReader {
             double y = (Double) entry.get("y");
             int demand = (Integer) entry.get("demand");
             boolean isDepot = (demand == 0);
-            vrpNodes.add(new Node(id, x, y, demand, isDepot));
+            vrpNodes.add(new Node(id, vrpNodes.size(), x, y, demand, isDepot));
         }
 
         return new VRPProblem(vrpNodes, capacity, bestSolution);